@@ -0,0 +1,101 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi_modified.sctp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares sending a burst of small messages spread over several streams
+ * with one {@link SctpSocket#send(ByteBuffer, int, int, SendOptions)} per
+ * message against a single {@link SctpSocket#sendBatch(SctpSendBatch)}. The
+ * score is per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchSendBenchmark
+{
+    private static final int BURST = 16;
+
+    private static final int STREAMS = 4;
+
+    @Param({"64", "128", "256", "512"})
+    public int messageSize;
+
+    private SctpLoopback loopback;
+
+    private final ByteBuffer[] messages = new ByteBuffer[BURST];
+
+    private final SctpSendBatch batch = new SctpSendBatch(BURST);
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback = new SctpLoopback(5000, 5001).connect();
+        for (int i = 0; i < BURST; i++)
+        {
+            messages[i] = ByteBuffer.allocateDirect(messageSize);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deliver()
+    {
+        // Deliver the packets and their SACKs so that the congestion window
+        // and the send buffer of the client never fill up.
+        loopback.pump();
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int single()
+    {
+        int sent = 0;
+        for (int i = 0; i < BURST; i++)
+        {
+            sent += loopback.client.send(
+                    messages[i], i % STREAMS, 51, SendOptions.RELIABLE);
+        }
+        return sent;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int batch()
+    {
+        batch.clear();
+        for (int i = 0; i < BURST; i++)
+        {
+            batch.add(messages[i], i % STREAMS, 51, SendOptions.RELIABLE);
+        }
+        return loopback.client.sendBatch(batch);
+    }
+}
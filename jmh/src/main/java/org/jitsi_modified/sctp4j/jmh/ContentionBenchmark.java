@@ -0,0 +1,84 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures concurrent senders on one socket while another thread keeps
+ * feeding the packets of the association back into the stack, the way an
+ * I/O thread does. Every call on either side locks the native pointer of a
+ * socket, so the benchmark exposes the cost of that lock under contention.
+ *
+ * The number of senders is set with JMH's thread group option, e.g.
+ * <code>-tg 8,1</code> for eight senders and one receiver.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark
+{
+    @Param({"64"})
+    public int messageSize;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback = new SctpLoopback(5000, 5001).connect();
+        message = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    @Group("association")
+    @GroupThreads(4)
+    public int send()
+    {
+        // Sends which find the send buffer full fail fast, which still takes
+        // the lock and so still counts.
+        return loopback.client.send(message, false, 1, 51);
+    }
+
+    @Benchmark
+    @Group("association")
+    @GroupThreads(1)
+    public int receive()
+    {
+        int delivered = loopback.pump();
+        if (delivered == 0)
+        {
+            Thread.onSpinWait();
+        }
+        return delivered;
+    }
+}
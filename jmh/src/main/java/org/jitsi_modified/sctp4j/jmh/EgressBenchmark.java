@@ -0,0 +1,76 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares handing the packets the SCTP stack emits for one message to the
+ * network sender one upcall at a time against a single upcall at the end of
+ * the send. Messages larger than the path MTU are fragmented into several
+ * DATA chunks, so each send emits several packets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EgressBenchmark
+{
+    @Param({"1024", "8192", "32768"})
+    public int messageSize;
+
+    @Param({"false", "true"})
+    public boolean batched;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback = new SctpLoopback(5000, 5001).connect();
+        loopback.setEgressBatching(batched);
+        message = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deliver()
+    {
+        // Deliver the packets and their SACKs so that the congestion window
+        // and the send buffer of the client never fill up.
+        loopback.pump();
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    public int send()
+    {
+        return loopback.client.send(message, true, 1, 51);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi_modified.sctp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares feeding a burst of received packets to the SCTP stack one
+ * {@link SctpSocket#onConnIn(ByteBuffer)} call at a time against a single
+ * {@link SctpSocket#onConnIn(ByteBuffer[], int, int)} or
+ * {@link Sctp4j#onConnIn(SctpSocket[], ByteBuffer[], int, int)} call.
+ *
+ * Each invocation delivers <code>burst</code> freshly generated DATA packets
+ * to the server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngressBenchmark
+{
+    @Param({"1", "16", "64"})
+    public int burst;
+
+    @Param({"256", "1024"})
+    public int messageSize;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    private ByteBuffer[] packets;
+
+    private SctpSocket[] sockets;
+
+    private int count;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback = new SctpLoopback(5000, 5001).connect();
+        message = ByteBuffer.allocateDirect(messageSize);
+        packets = new ByteBuffer[burst * 2];
+        sockets = new SctpSocket[packets.length];
+        for (int i = 0; i < sockets.length; i++)
+        {
+            sockets[i] = loopback.server;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void generatePackets()
+    {
+        // Hand the SACKs of the previous invocation to the client so its
+        // congestion window never closes.
+        loopback.pumpToClient();
+        for (int i = 0; i < burst; i++)
+        {
+            loopback.client.send(message, false, 1, 51);
+        }
+        count = loopback.drainToServer(packets);
+    }
+
+    @TearDown(Level.Invocation)
+    public void recyclePackets()
+    {
+        for (int i = 0; i < count; i++)
+        {
+            loopback.recycle(packets[i]);
+            packets[i] = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    public void perPacket()
+    {
+        SctpSocket server = loopback.server;
+        for (int i = 0; i < count; i++)
+        {
+            server.onConnIn(packets[i]);
+        }
+    }
+
+    @Benchmark
+    public void batch()
+    {
+        loopback.server.onConnIn(packets, 0, count);
+    }
+
+    @Benchmark
+    public void batchAcrossSockets()
+    {
+        Sctp4j.onConnIn(sockets, packets, 0, count);
+    }
+}
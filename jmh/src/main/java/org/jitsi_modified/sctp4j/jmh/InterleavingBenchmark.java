@@ -0,0 +1,126 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi_modified.sctp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the one-way latency of a small message while a bulk message is
+ * being transferred on another stream, with and without message
+ * interleaving (I-DATA). Without it, the small message waits for the
+ * remaining fragments of the bulk message to be sent; with it, the round
+ * robin stream scheduler sends it after at most a chunk of the bulk
+ * message. A new bulk message is sent whenever the previous one has been
+ * delivered, so that one is always in flight.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterleavingBenchmark
+{
+    private static final int SMALL_SID = 1;
+
+    private static final int BULK_SID = 2;
+
+    @Param({"true", "false"})
+    public boolean interleaving;
+
+    @Param({"65536", "262144"})
+    public int bulkSize;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer small;
+
+    private ByteBuffer bulk;
+
+    private boolean smallDelivered;
+
+    private boolean bulkInFlight;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback
+            = new SctpLoopback(
+                    5000,
+                    5001,
+                    SctpSocketOptions.builder()
+                        .interleaving(interleaving)
+                        .sendBufferSize(4 * bulkSize)
+                        .build())
+                .connect();
+        loopback.server.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) -> {
+                if (sid == SMALL_SID)
+                {
+                    smallDelivered = true;
+                }
+                else
+                {
+                    bulkInFlight = false;
+                }
+            };
+        small = ByteBuffer.allocateDirect(64);
+        bulk = ByteBuffer.allocateDirect(bulkSize);
+    }
+
+    @Setup(Level.Invocation)
+    public void sendBulk()
+    {
+        if (!bulkInFlight)
+        {
+            // The stack sends a window of its fragments right away, the
+            // rest as the SACKs come in.
+            bulkInFlight = loopback.client.send(bulk, true, BULK_SID, 50) >= 0;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    public boolean smallDuringBulk()
+    {
+        smallDelivered = false;
+        if (loopback.client.send(small, true, SMALL_SID, 51) < 0)
+        {
+            return false;
+        }
+        while (!smallDelivered)
+        {
+            if (loopback.pumpToServer() == 0)
+            {
+                // Let the SACKs through for the stack to send more.
+                loopback.pumpToClient();
+            }
+        }
+        return smallDelivered;
+    }
+}
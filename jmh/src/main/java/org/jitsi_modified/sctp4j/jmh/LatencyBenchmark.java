@@ -0,0 +1,91 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the one-way latency of a message, from the call to send on the
+ * client until the data callback of the server returns, with nothing else in
+ * flight. The sample mode reports the distribution, including p50 and p99.
+ * The SACKs of the server are delivered outside of the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyBenchmark
+{
+    @Param({"64", "1024", "16384"})
+    public int messageSize;
+
+    @Param({"true", "false"})
+    public boolean ordered;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    private boolean delivered;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback = new SctpLoopback(5000, 5001).connect();
+        loopback.server.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) -> delivered = true;
+        message = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Invocation)
+    public void acknowledge()
+    {
+        loopback.pump();
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    public boolean oneWay()
+    {
+        delivered = false;
+        if (loopback.client.send(message, ordered, 1, 51) < 0)
+        {
+            return false;
+        }
+        while (!delivered)
+        {
+            if (loopback.pumpToServer() == 0)
+            {
+                // The message is held back by the stack, e.g. by the
+                // congestion window; let the SACKs through.
+                loopback.pumpToClient();
+            }
+        }
+        return delivered;
+    }
+}
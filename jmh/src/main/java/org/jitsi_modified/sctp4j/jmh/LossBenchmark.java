@@ -0,0 +1,153 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi_modified.sctp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures how long a burst of ordered messages takes to be delivered when
+ * the path from the client to the server loses packets, with fully reliable
+ * messages against partially reliable (PR-SCTP) ones.
+ *
+ * A reliable message which is lost holds back all following ones until it
+ * has been retransmitted successfully, which may take a retransmission
+ * timeout. Partially reliable messages are abandoned instead and the
+ * receiver is told to skip them. The difference shows in the upper
+ * percentiles of the sample distribution.
+ *
+ * The last message of each burst is sent fully reliably and without loss,
+ * and the burst is over once it has been delivered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LossBenchmark
+{
+    private static final int BURST = 32;
+
+    /**
+     * How long a burst may take before the benchmark fails rather than
+     * hangs.
+     */
+    private static final long BURST_TIMEOUT_NANOS
+        = TimeUnit.SECONDS.toNanos(10);
+
+    @Param({"0", "5"})
+    public int lossPercent;
+
+    @Param({"reliable", "rtx0", "ttl50"})
+    public String reliability;
+
+    @Param({"256"})
+    public int messageSize;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    private SendOptions options;
+
+    private int next;
+
+    private volatile int lastReceived = -1;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        switch (reliability)
+        {
+            case "reliable":
+                options = SendOptions.RELIABLE;
+                break;
+            case "rtx0":
+                options = SendOptions.RELIABLE.maxRetransmits(0);
+                break;
+            case "ttl50":
+                options = SendOptions.RELIABLE.maxLifetime(50);
+                break;
+            default:
+                throw new IllegalArgumentException(reliability);
+        }
+
+        loopback = new SctpLoopback(5000, 5001).connect();
+        loopback.server.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags)
+                -> lastReceived = data.getInt(data.position());
+        message = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    public void burst()
+        throws InterruptedException, TimeoutException
+    {
+        loopback.setLossToServer(lossPercent / 100.0);
+        for (int i = 0; i < BURST - 1; i++)
+        {
+            send(next++, options);
+        }
+        loopback.setLossToServer(0);
+
+        // A partially reliable last message could be abandoned while the
+        // lost ones hold back the congestion window.
+        int last = next++;
+        send(last, SendOptions.RELIABLE);
+        long deadline = System.nanoTime() + BURST_TIMEOUT_NANOS;
+        while (lastReceived != last)
+        {
+            if (System.nanoTime() - deadline > 0)
+            {
+                throw new TimeoutException(
+                        "Message " + last + " not delivered");
+            }
+            if (loopback.pump() == 0)
+            {
+                // Wait for the timers of the stack.
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private void send(int index, SendOptions options)
+        throws InterruptedException
+    {
+        message.putInt(0, index);
+        while (loopback.client.send(message, 1, 51, options)
+                == SctpSendResult.WOULD_BLOCK)
+        {
+            // The send buffer is full.
+            if (loopback.pump() == 0)
+            {
+                Thread.sleep(1);
+            }
+        }
+        loopback.pump();
+    }
+}
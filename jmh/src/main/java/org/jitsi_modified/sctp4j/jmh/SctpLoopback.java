@@ -0,0 +1,284 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi.utils.logging2.*;
+import org.jitsi_modified.sctp4j.*;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A client and a server socket connected in process. The packets one of them
+ * sends are copied into a queue rather than being handed to the other one
+ * from within the output callback, so the SCTP stack is never re-entered from
+ * its own output path. They are delivered by the pump methods.
+ */
+public class SctpLoopback
+{
+    private static final Logger logger
+        = new LoggerImpl(SctpLoopback.class.getName());
+
+    /**
+     * The capacity of the buffers packets are copied into.
+     */
+    private static final int PACKET_BUFFER_SIZE = 2048;
+
+    public final SctpServerSocket server;
+
+    public final SctpClientSocket client;
+
+    private final int serverPort;
+
+    /**
+     * Packets sent by the client and not yet delivered to the server.
+     */
+    public final Queue<ByteBuffer> toServer = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Packets sent by the server and not yet delivered to the client.
+     */
+    public final Queue<ByteBuffer> toClient = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Direct buffers which have been delivered and can be reused.
+     */
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    private final CountDownLatch clientReady = new CountDownLatch(1);
+
+    /**
+     * The probability with which a packet sent by the client is dropped
+     * rather than queued for the server.
+     */
+    private volatile double lossToServer;
+
+    static
+    {
+        Sctp4j.init(0);
+    }
+
+    public SctpLoopback(int serverPort, int clientPort)
+    {
+        this(serverPort, clientPort, SctpSocketOptions.DEFAULT);
+    }
+
+    /**
+     * Creates the client and the server socket, both tuned by the given
+     * options.
+     */
+    public SctpLoopback(
+            int serverPort, int clientPort, SctpSocketOptions options)
+    {
+        this.serverPort = serverPort;
+        server = Sctp4j.createServerSocket(serverPort, options, logger);
+        client = Sctp4j.createClientSocket(clientPort, options, logger);
+        if (server == null || client == null)
+        {
+            throw new IllegalStateException("Failed to create sockets");
+        }
+
+        server.outgoingBufferSender = packet -> enqueue(toClient, packet);
+        client.outgoingBufferSender = packet -> enqueue(toServer, packet);
+        server.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) -> {};
+        client.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) -> {};
+        client.eventHandler = new SctpSocket.SctpSocketEventHandler()
+        {
+            @Override
+            public void onReady()
+            {
+                clientReady.countDown();
+            }
+
+            @Override
+            public void onDisconnected()
+            {
+            }
+        };
+    }
+
+    /**
+     * Establishes the association between the client and the server.
+     */
+    public SctpLoopback connect()
+        throws InterruptedException, TimeoutException
+    {
+        server.listen();
+        if (!client.connect(serverPort))
+        {
+            throw new IllegalStateException("Client failed to connect");
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        boolean accepted = false;
+        while (!accepted || clientReady.getCount() != 0)
+        {
+            if (System.nanoTime() > deadline)
+            {
+                throw new TimeoutException("Association not established");
+            }
+            if (pump() == 0)
+            {
+                Thread.sleep(1);
+            }
+            if (!accepted)
+            {
+                accepted = server.accept();
+            }
+        }
+        pump();
+        return this;
+    }
+
+    /**
+     * Switches both sockets between handing their packets to the loopback
+     * one by one and in batches.
+     */
+    public void setEgressBatching(boolean enable)
+    {
+        server.setOutgoingBatchSender(
+                enable ? (packets, count) -> enqueue(toClient, packets, count)
+                    : null);
+        client.setOutgoingBatchSender(
+                enable ? (packets, count) -> enqueue(toServer, packets, count)
+                    : null);
+    }
+
+    private int enqueue(
+            Queue<ByteBuffer> queue, ByteBuffer[] packets, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            enqueue(queue, packets[i]);
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the probability with which packets sent by the client are lost.
+     */
+    public void setLossToServer(double probability)
+    {
+        lossToServer = probability;
+    }
+
+    private int enqueue(Queue<ByteBuffer> queue, ByteBuffer packet)
+    {
+        if (queue == toServer
+                && lossToServer > 0
+                && ThreadLocalRandom.current().nextDouble() < lossToServer)
+        {
+            return 0;
+        }
+
+        ByteBuffer copy = pool.poll();
+        if (copy == null || copy.capacity() < packet.remaining())
+        {
+            copy = ByteBuffer.allocateDirect(
+                    Math.max(PACKET_BUFFER_SIZE, packet.remaining()));
+        }
+        copy.clear();
+        copy.put(packet).flip();
+        queue.add(copy);
+        return 0;
+    }
+
+    /**
+     * Returns a delivered packet buffer for reuse.
+     */
+    public void recycle(ByteBuffer packet)
+    {
+        pool.add(packet);
+    }
+
+    /**
+     * Delivers the packets queued for the server, one by one.
+     *
+     * @return the number of delivered packets.
+     */
+    public int pumpToServer()
+    {
+        return pump(toServer, server);
+    }
+
+    /**
+     * Delivers the packets queued for the client, one by one.
+     *
+     * @return the number of delivered packets.
+     */
+    public int pumpToClient()
+    {
+        return pump(toClient, client);
+    }
+
+    /**
+     * Delivers queued packets in both directions until there are none left.
+     *
+     * @return the number of delivered packets.
+     */
+    public int pump()
+    {
+        int total = 0;
+        int delivered;
+        do
+        {
+            delivered = pumpToServer() + pumpToClient();
+            total += delivered;
+        }
+        while (delivered != 0);
+        return total;
+    }
+
+    private int pump(Queue<ByteBuffer> queue, SctpSocket socket)
+    {
+        int delivered = 0;
+        ByteBuffer packet;
+        while ((packet = queue.poll()) != null)
+        {
+            socket.onConnIn(packet);
+            recycle(packet);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Moves the packets queued for the server into <code>packets</code>,
+     * without delivering them.
+     *
+     * @return the number of packets moved.
+     */
+    public int drainToServer(ByteBuffer[] packets)
+    {
+        int count = 0;
+        ByteBuffer packet;
+        while (count < packets.length && (packet = toServer.poll()) != null)
+        {
+            packets[count++] = packet;
+        }
+        return count;
+    }
+
+    public void close()
+    {
+        client.close();
+        server.close();
+    }
+}
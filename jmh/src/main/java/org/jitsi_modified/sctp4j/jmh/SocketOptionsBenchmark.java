@@ -0,0 +1,143 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi_modified.sctp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Shows the effect of the individual {@link SctpSocketOptions} on loopback
+ * throughput and latency. Each value of <code>knob</code> changes a single
+ * option of both sockets from the defaults.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SocketOptionsBenchmark
+{
+    private static final int BURST = 16;
+
+    private static final Map<String, SctpSocketOptions> KNOBS
+        = new HashMap<>();
+
+    static
+    {
+        KNOBS.put("default", SctpSocketOptions.DEFAULT);
+        KNOBS.put(
+                "nagle",
+                SctpSocketOptions.builder().noDelay(false).build());
+        KNOBS.put(
+                "sndbuf64k",
+                SctpSocketOptions.builder().sendBufferSize(64 * 1024).build());
+        KNOBS.put(
+                "buffers4m",
+                SctpSocketOptions.builder()
+                    .sendBufferSize(4 * 1024 * 1024)
+                    .receiveBufferSize(4 * 1024 * 1024)
+                    .build());
+        KNOBS.put(
+                "maxBurst1",
+                SctpSocketOptions.builder().maxBurst(1).build());
+        KNOBS.put(
+                "sackImmediate",
+                SctpSocketOptions.builder().delayedSack(0, 1).build());
+        KNOBS.put(
+                "sackEvery4",
+                SctpSocketOptions.builder().delayedSack(20, 4).build());
+        KNOBS.put(
+                "rto100",
+                SctpSocketOptions.builder().rto(100, 50, 1000).build());
+        KNOBS.put(
+                "streams1024",
+                SctpSocketOptions.builder().streams(1024, 1024).build());
+        KNOBS.put(
+                "maxSeg536",
+                SctpSocketOptions.builder().maxSegmentSize(536).build());
+    }
+
+    @Param({
+        "default",
+        "nagle",
+        "sndbuf64k",
+        "buffers4m",
+        "maxBurst1",
+        "sackImmediate",
+        "sackEvery4",
+        "rto100",
+        "streams1024",
+        "maxSeg536"
+    })
+    public String knob;
+
+    @Param({"1024"})
+    public int messageSize;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    private ByteBuffer ping;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback = new SctpLoopback(5000, 5001, KNOBS.get(knob)).connect();
+        message = ByteBuffer.allocateDirect(messageSize);
+        ping = ByteBuffer.allocateDirect(64);
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    /**
+     * Sends a burst of messages and delivers the resulting packets and
+     * SACKs. The score is per message.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BURST)
+    public int throughput()
+    {
+        for (int i = 0; i < BURST; i++)
+        {
+            loopback.client.send(message, true, 1, 51);
+        }
+        return loopback.pump();
+    }
+
+    /**
+     * Sends a small message and delivers it and its SACK.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int latency()
+    {
+        loopback.client.send(ping, true, 1, 51);
+        return loopback.pump();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi_modified.sctp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Compares scraping the association status of many sockets one
+ * {@link SctpSocket#stats()} call at a time against a single
+ * {@link Sctp4j#sweepStats(SctpStatsTable)}. The score is per sweep of all
+ * sockets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsBenchmark
+{
+    @Param({"100"})
+    public int associations;
+
+    private SctpLoopback[] loopbacks;
+
+    private SctpStatsTable table;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopbacks = new SctpLoopback[associations];
+        for (int i = 0; i < associations; i++)
+        {
+            loopbacks[i] = new SctpLoopback(5000 + 2 * i, 5001 + 2 * i)
+                .connect();
+        }
+        // Both ends of each loopback are swept.
+        table = new SctpStatsTable(2 * associations);
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        for (SctpLoopback loopback : loopbacks)
+        {
+            loopback.close();
+        }
+    }
+
+    @Benchmark
+    public long perSocket()
+    {
+        long cwnd = 0;
+        for (SctpLoopback loopback : loopbacks)
+        {
+            SctpSocketStats client = loopback.client.stats();
+            SctpSocketStats server = loopback.server.stats();
+            if (client != null)
+            {
+                cwnd += client.getCwnd();
+            }
+            if (server != null)
+            {
+                cwnd += server.getCwnd();
+            }
+        }
+        return cwnd;
+    }
+
+    @Benchmark
+    public long sweep()
+    {
+        long cwnd = 0;
+        int count = Sctp4j.sweepStats(table);
+        for (int i = 0; i < count; i++)
+        {
+            cwnd += table.cwnd(i);
+        }
+        return cwnd;
+    }
+}
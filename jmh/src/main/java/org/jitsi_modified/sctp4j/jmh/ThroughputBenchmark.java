@@ -0,0 +1,137 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.jitsi_modified.sctp4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the end to end throughput of an association: messages are sent
+ * by the client and delivered to the data callback of the server, spread
+ * round robin over <code>streams</code> streams. Besides the score, which is
+ * the number of messages the client has accepted per second, the
+ * <code>messages</code> and <code>bytes</code> counters report what the
+ * server has received per second. A send which finds the send buffer full
+ * is retried once the server has acknowledged what it holds.
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate of the path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThroughputBenchmark
+{
+    private static final int BURST = 16;
+
+    @Param({"64", "256", "1024", "4096", "16384"})
+    public int messageSize;
+
+    @Param({"true", "false"})
+    public boolean ordered;
+
+    @Param({"1", "16"})
+    public int streams;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    private int sid;
+
+    /**
+     * What the server has received, reported per second by JMH.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Received
+    {
+        public long messages;
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            messages = 0;
+            bytes = 0;
+        }
+    }
+
+    private Received received;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        // The stack negotiates only 10 outgoing streams by default.
+        loopback
+            = new SctpLoopback(
+                    5000,
+                    5001,
+                    SctpSocketOptions.builder()
+                        .streams(streams, streams)
+                        .build())
+                .connect();
+        loopback.server.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) -> {
+                Received received = this.received;
+                if (received != null)
+                {
+                    received.messages++;
+                    received.bytes += data.remaining();
+                }
+            };
+        message = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int transfer(Received received)
+        throws InterruptedException
+    {
+        this.received = received;
+        for (int i = 0; i < BURST; i++)
+        {
+            while (loopback.client.send(message, ordered, sid, 51)
+                    == SctpSendResult.WOULD_BLOCK)
+            {
+                // The send buffer is full.
+                if (loopback.pump() == 0)
+                {
+                    Thread.sleep(1);
+                }
+            }
+            if (++sid == streams)
+            {
+                sid = 0;
+            }
+        }
+        return loopback.pump();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures a small message round trip through the loopback, which is
+ * dominated by the cost of crossing the JNI boundary: the send makes an
+ * outbound upcall and delivering the packet to the server makes an inbound
+ * data upcall, plus the upcalls for the SACKs, some of which are made from
+ * the timer thread of usrsctp.
+ *
+ * To quantify a change to the upcall path, run the benchmark against both
+ * builds of the library, e.g. by installing the baseline under a different
+ * version and passing <code>-Djitsi.sctp.version=...</code> when packaging
+ * this module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpcallBenchmark
+{
+    @Param({"16"})
+    public int messageSize;
+
+    private SctpLoopback loopback;
+
+    private ByteBuffer message;
+
+    @Setup(Level.Trial)
+    public void connect()
+        throws Exception
+    {
+        loopback = new SctpLoopback(5000, 5001).connect();
+        message = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        loopback.close();
+    }
+
+    @Benchmark
+    public int roundTrip()
+    {
+        loopback.client.send(message, false, 1, 51);
+        return loopback.pump();
+    }
+}
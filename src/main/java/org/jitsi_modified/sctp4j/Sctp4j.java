@@ -18,9 +18,9 @@ package org.jitsi_modified.sctp4j;
 
 import org.jitsi.utils.logging2.*;
 
-import java.util.*;
+import java.io.*;
+import java.nio.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.*;
 
 /**
  * This class represents the first layer of the actual API on top of the bare
@@ -34,6 +34,23 @@ import java.util.concurrent.atomic.*;
 public class Sctp4j {
     private static boolean initialized = false;
 
+    /**
+     * Whether the stack has been initialized without its timer thread, the
+     * timers being driven by {@link #pollTimers()}.
+     */
+    private static volatile boolean callerDrivenTimers = false;
+
+    /**
+     * Guards the timer clock below.
+     */
+    private static final Object timerLock = new Object();
+
+    /**
+     * The {@link System#nanoTime()} up to which the timers of the stack have
+     * been advanced.
+     */
+    private static long timersAdvancedToNanos;
+
     private static final Logger classLogger = new LoggerImpl(Sctp4j.class.toString());
 
     /**
@@ -45,9 +62,6 @@ public class Sctp4j {
         {
             SctpJni.usrsctp_init(port, sctpDebugMask);
             initialized = true;
-
-            SctpJni.incomingSctpDataHandler = Sctp4j::onSctpIncomingData;
-            SctpJni.outgoingSctpDataHandler = Sctp4j::onOutgoingSctpData;
         }
     }
 
@@ -56,6 +70,135 @@ public class Sctp4j {
         init(port, 0);
     }
 
+    /**
+     * Initializes the SCTP stack without its internal threads. Nothing runs
+     * in the background then: the application drives the timers of the
+     * stack by calling {@link #pollTimers()} from its event loop, no later
+     * than {@link #nextTimeoutNanos()} after the previous call. All upcalls,
+     * including retransmissions, are then made on the threads calling into
+     * the library.
+     *
+     * https://github.com/sctplab/usrsctp/blob/master/Manual.md#usrsctp_init
+     */
+    public static void initWithoutThreads(int port, int sctpDebugMask)
+    {
+        if (!initialized)
+        {
+            SctpJni.usrsctp_init_nothreads(port, sctpDebugMask);
+            synchronized (timerLock)
+            {
+                timersAdvancedToNanos = System.nanoTime();
+            }
+            callerDrivenTimers = true;
+            initialized = true;
+        }
+    }
+
+    /**
+     * Runs the timers of the stack which have expired since the last call.
+     * Only valid after {@link #initWithoutThreads(int, int)}.
+     *
+     * @throws IllegalStateException if the stack runs its own timer thread.
+     */
+    public static void pollTimers()
+    {
+        checkCallerDrivenTimers();
+
+        int elapsedMillis;
+        synchronized (timerLock)
+        {
+            // Whole milliseconds only, the remainder is carried over to the
+            // next poll.
+            long elapsedNanos = System.nanoTime() - timersAdvancedToNanos;
+            elapsedMillis = (int) Math.min(
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    Integer.MAX_VALUE);
+            timersAdvancedToNanos
+                += TimeUnit.MILLISECONDS.toNanos(elapsedMillis);
+        }
+        if (elapsedMillis > 0)
+        {
+            SctpJni.usrsctp_handle_timers(elapsedMillis);
+        }
+    }
+
+    /**
+     * Returns the time until {@link #pollTimers()} has a timer to run. Only
+     * valid after {@link #initWithoutThreads(int, int)}.
+     *
+     * @return the time in nanoseconds, 0 if a timer has expired already, or
+     * -1 if no timer is pending.
+     * @throws IllegalStateException if the stack runs its own timer thread.
+     */
+    public static long nextTimeoutNanos()
+    {
+        checkCallerDrivenTimers();
+
+        int timeoutMillis = SctpJni.usrsctp_get_timeout();
+        if (timeoutMillis < 0)
+        {
+            return -1;
+        }
+
+        long sinceAdvanced;
+        synchronized (timerLock)
+        {
+            sinceAdvanced = System.nanoTime() - timersAdvancedToNanos;
+        }
+        return Math.max(
+                0, TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - sinceAdvanced);
+    }
+
+    private static void checkCallerDrivenTimers()
+    {
+        if (!callerDrivenTimers)
+        {
+            throw new IllegalStateException(
+                    "The SCTP stack has not been initialized without threads");
+        }
+    }
+
+    /**
+     * Initializes the SCTP stack and applies the given stack-wide
+     * configuration to it.
+     *
+     * @throws IllegalStateException if the stack rejects a sysctl.
+     */
+    public static void init(int port, int sctpDebugMask, Sctp4jConfig config)
+    {
+        init(port, sctpDebugMask);
+        configure(config);
+    }
+
+    /**
+     * Applies the sysctls set in the given configuration to the SCTP stack.
+     * Associations which have already been set up keep their settings.
+     *
+     * @throws IllegalStateException if the stack rejects a sysctl.
+     */
+    public static void configure(Sctp4jConfig config)
+    {
+        for (Sctp4jConfig.Sysctl sysctl : config.getSet())
+        {
+            long value = config.get(sysctl);
+            if (!SctpJni.usrsctp_sysctl_set(sysctl.ordinal(), value))
+            {
+                throw new IllegalStateException(
+                        "Failed to set " + sysctl + " to " + value);
+            }
+            classLogger.debug(() -> "Set " + sysctl + " to " + value);
+        }
+    }
+
+    /**
+     * Reads back the current values of all sysctls of
+     * {@link Sctp4jConfig.Sysctl} from the SCTP stack.
+     */
+    public static Sctp4jConfig readConfig()
+    {
+        return Sctp4jConfig.read();
+    }
+
     /**
      * Closes the SCTP socket addressed by the given native pointer.
      *
@@ -64,7 +207,7 @@ public class Sctp4j {
     static void closeSocket(long ptr, long id)
     {
         SctpJni.usrsctp_close(ptr);
-        sockets.remove(id);
+        sockets.release(id);
     }
 
     /**
@@ -73,10 +216,28 @@ public class Sctp4j {
     public static final int MSG_NOTIFICATION = 0x2000;
 
     /**
-     * List of instantiated SctpSockets mapped by native pointer.
+     * The upcall event of a socket which has data to read or, if listening,
+     * an association to accept.
+     */
+    static final int SCTP_EVENT_READ = 0x0001;
+
+    /**
+     * The array of native pointers reused by
+     * {@link #onConnIn(SctpSocket[], ByteBuffer[], int, int)} on each thread.
+     */
+    private static final ThreadLocal<long[]> connInPtrs = new ThreadLocal<>();
+
+    /**
+     * The instantiated SctpSockets, by the id they have been registered with
+     * in the native stack.
+     */
+    private static final SctpSocketRegistry sockets
+            = new SctpSocketRegistry();
+
+    /*
+     * The callbacks below are resolved by name and signature when the native
+     * library is loaded and are invoked by it directly.
      */
-    private static final Map<Long, SctpSocket> sockets
-            = new ConcurrentHashMap<>();
 
     /**
      * This callback is called by the SCTP stack when it has an incoming packet
@@ -85,7 +246,8 @@ public class Sctp4j {
      * the stack itself)
      *
      * @param socketAddr
-     * @param data
+     * @param data view of the native receive buffer, only valid for the
+     * duration of the call
      * @param sid
      * @param ssn
      * @param tsn
@@ -95,7 +257,7 @@ public class Sctp4j {
      */
     private static void onSctpIncomingData(
             long socketAddr,
-            byte[] data,
+            ByteBuffer data,
             int sid, int ssn, int tsn, long ppid, int context, int flags) {
         SctpSocket socket = sockets.get(socketAddr);
         if (socket != null)
@@ -112,13 +274,14 @@ public class Sctp4j {
      * This callback is called by the SCTP stack when it has a packet it wants
      * to send out to the network.
      * @param socketAddr
-     * @param data
+     * @param data view of the native packet memory, only valid for the
+     * duration of the call
      * @param tos
      * @param set_df
      * @return 0 if the packet was successfully sent, -1 otherwise
      */
     private static int onOutgoingSctpData(
-            long socketAddr, byte[] data, int tos, int set_df)
+            long socketAddr, ByteBuffer data, int tos, int set_df)
     {
         SctpSocket socket = sockets.get(socketAddr);
         if (socket != null)
@@ -132,6 +295,192 @@ public class Sctp4j {
         return -1;
     }
 
+    /**
+     * This callback is called by the SCTP stack at the end of a batched call
+     * into it with the packets it has emitted for one socket.
+     * @param socketAddr
+     * @param packets views of the native packet memory, only valid for the
+     * duration of the call
+     * @param count the number of packets
+     * @return 0 if the packets were successfully sent, -1 otherwise
+     */
+    private static int onOutgoingSctpPackets(
+            long socketAddr, ByteBuffer[] packets, int count)
+    {
+        SctpSocket socket = sockets.get(socketAddr);
+        if (socket != null)
+        {
+            return socket.onSctpOut(packets, count);
+        }
+        else
+        {
+            classLogger.error("No socket found in onOutgoingSctpPackets");
+        }
+        return -1;
+    }
+
+    /**
+     * This callback is called by the SCTP stack when acknowledged data has
+     * been removed from the send buffer of a socket.
+     * @param socketAddr
+     * @param sbFree the number of bytes free in the send buffer
+     */
+    private static void onSctpSendBufferFree(long socketAddr, int sbFree)
+    {
+        SctpSocket socket = sockets.get(socketAddr);
+        if (socket != null)
+        {
+            socket.onSendBufferFree(sbFree);
+        }
+    }
+
+    /**
+     * This callback is called by the SCTP stack when the state of a socket
+     * with an upcall has changed.
+     * @param socketAddr
+     * @param events the SCTP_EVENT_* flags of the socket.
+     */
+    private static void onSctpUpcall(long socketAddr, int events)
+    {
+        SctpSocket socket = sockets.get(socketAddr);
+        if (socket != null)
+        {
+            socket.onUpcall(events);
+        }
+    }
+
+    /**
+     * Passes a burst of network packets, which may be destined to different
+     * sockets, to the SCTP stack in a single native call.
+     *
+     * @param sockets the sockets the packets were received for,
+     * <code>sockets[i]</code> being the socket of <code>packets[i]</code>.
+     * @param packets direct buffers holding the network packets, the bytes
+     * between the position and the limit of each making up one packet.
+     * @param offset the index of the first packet in both arrays.
+     * @param count the number of packets to pass.
+     */
+    public static void onConnIn(
+            SctpSocket[] sockets, ByteBuffer[] packets, int offset, int count)
+    {
+        if (offset < 0 || count < 0
+                || offset + count > packets.length
+                || offset + count > sockets.length)
+        {
+            throw new IllegalArgumentException(
+                    "o: " + offset + " c: " + count
+                        + " packets l: " + packets.length
+                        + " sockets l: " + sockets.length);
+        }
+        for (int i = offset; i < offset + count; i++)
+        {
+            if (!packets[i].isDirect())
+            {
+                throw new IllegalArgumentException(
+                        "Packet " + i + " is not a direct buffer");
+            }
+        }
+
+        // A callback may pass packets to the stack on the same thread, so the
+        // array is taken from the thread while in use.
+        long[] ptrs = connInPtrs.get();
+        if (ptrs == null || ptrs.length < count)
+        {
+            ptrs = new long[Math.max(count, 64)];
+        }
+        else
+        {
+            connInPtrs.set(null);
+        }
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                try
+                {
+                    ptrs[i] = sockets[offset + i].lockPtr();
+                }
+                catch (IOException ioe)
+                {
+                    // A pointer of 0 makes the packet skipped.
+                    ptrs[i] = 0;
+                }
+            }
+            SctpJni.on_network_in_multi(ptrs, packets, offset, count);
+        }
+        finally
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (ptrs[i] != 0)
+                {
+                    sockets[offset + i].unlockPtr();
+                }
+            }
+        }
+        if (SctpSocketMetrics.ENABLED)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                sockets[offset + i].onConnIn(
+                        1, packets[offset + i].remaining(), ptrs[i] == 0);
+            }
+        }
+        connInPtrs.set(ptrs);
+    }
+
+    /**
+     * Reads the association status of all open sockets, up to the capacity
+     * of <tt>table</tt>, with a single native call.
+     *
+     * @param table the table to fill; its previous content is discarded.
+     * @return the number of rows filled.
+     */
+    public static int sweepStats(SctpStatsTable table)
+    {
+        table.clear();
+
+        int count = sockets.snapshot(table.sockets);
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                try
+                {
+                    table.ptrs[i] = table.sockets[i].lockPtr();
+                }
+                catch (IOException ioe)
+                {
+                    // Leave the pointer at 0 so the row is marked invalid.
+                }
+            }
+            table.size = count;
+            SctpJni.usrsctp_get_status(
+                    table.ptrs, count, table.values, table.capacity());
+        }
+        finally
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (table.ptrs[i] != 0)
+                {
+                    table.sockets[i].unlockPtr();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the stack-wide counters of the SCTP stack.
+     */
+    public static SctpStackStats stackStats()
+    {
+        long[] counters = new long[SctpStackStats.COUNT];
+        SctpJni.usrsctp_get_stat(counters);
+        return new SctpStackStats(counters);
+    }
+
     /**
      * Create an {@link SctpServerSocket} which can be used to listen for an
      * incoming connection
@@ -140,19 +489,111 @@ public class Sctp4j {
      */
     public static SctpServerSocket createServerSocket(int localSctpPort, Logger parentLogger)
     {
-        long id = nextId.getAndIncrement();
-        long ptr = SctpJni.usrsctp_socket(localSctpPort, id);
+        return createServerSocket(
+                localSctpPort, SctpSocketOptions.DEFAULT, parentLogger);
+    }
+
+    /**
+     * Create an {@link SctpServerSocket} tuned by the given options.
+     *
+     * @param localSctpPort
+     * @param options the options applied to the socket before it is used.
+     * @return
+     */
+    public static SctpServerSocket createServerSocket(
+            int localSctpPort, SctpSocketOptions options, Logger parentLogger)
+    {
+        long id = sockets.reserve();
+        long ptr = SctpJni.usrsctp_socket(localSctpPort, id, options.values);
         if (ptr == 0)
         {
+            sockets.release(id);
             parentLogger.error("Failed to create server socket");
             return null;
         }
         SctpServerSocket socket = new SctpServerSocket(ptr, id, parentLogger);
-        sockets.put(id, socket);
+        applyOptions(socket, options);
+        sockets.publish(socket);
 
         return socket;
     }
 
+    /**
+     * Create an {@link SctpListenerSocket} which can be used to accept any
+     * number of incoming associations.
+     *
+     * @param localSctpPort
+     * @return
+     */
+    public static SctpListenerSocket createListenerSocket(
+            int localSctpPort, Logger parentLogger)
+    {
+        return createListenerSocket(
+                localSctpPort, SctpSocketOptions.DEFAULT, parentLogger);
+    }
+
+    /**
+     * Create an {@link SctpListenerSocket} tuned by the given options.
+     *
+     * @param localSctpPort
+     * @param options the options applied to the socket, and inherited by the
+     * associations it accepts.
+     * @return
+     */
+    public static SctpListenerSocket createListenerSocket(
+            int localSctpPort, SctpSocketOptions options, Logger parentLogger)
+    {
+        long id = sockets.reserve();
+        long ptr = SctpJni.usrsctp_socket(localSctpPort, id, options.values);
+        if (ptr == 0)
+        {
+            sockets.release(id);
+            parentLogger.error("Failed to create listener socket");
+            return null;
+        }
+        SctpListenerSocket socket
+            = new SctpListenerSocket(ptr, id, localSctpPort, parentLogger);
+        applyOptions(socket, options);
+        sockets.publish(socket);
+
+        return socket;
+    }
+
+    /**
+     * Creates the socket of a peer of a listener socket.
+     *
+     * @param listener the listener socket.
+     * @return the socket, or <tt>null</tt> if it could not be created.
+     */
+    static SctpServerSocket createAssociationSocket(
+            SctpListenerSocket listener, Logger parentLogger)
+    {
+        long id = sockets.reserve();
+        long ptr = SctpJni.usrsctp_association(listener.localPort, id);
+        if (ptr == 0)
+        {
+            sockets.release(id);
+            parentLogger.error("Failed to create association socket");
+            return null;
+        }
+        SctpServerSocket socket
+            = new SctpServerSocket(ptr, id, listener, parentLogger);
+        // The association inherits the options of the listener.
+        socket.setBufferedAmountLowThreshold(
+                listener.getBufferedAmountLowThreshold());
+        sockets.publish(socket);
+
+        return socket;
+    }
+
+    /**
+     * @return the open socket with the given id, or <tt>null</tt>.
+     */
+    static SctpSocket getSocket(long id)
+    {
+        return sockets.get(id);
+    }
+
     /**
      * Create an {@link SctpClientSocket} which can be used to connect to an
      * {@link SctpServerSocket}.
@@ -162,21 +603,47 @@ public class Sctp4j {
      */
     public static SctpClientSocket createClientSocket(int localSctpPort, Logger parentLogger)
     {
-        long id = nextId.getAndIncrement();
-        long ptr = SctpJni.usrsctp_socket(localSctpPort, id);
+        return createClientSocket(
+                localSctpPort, SctpSocketOptions.DEFAULT, parentLogger);
+    }
+
+    /**
+     * Create an {@link SctpClientSocket} tuned by the given options.
+     *
+     * @param localSctpPort
+     * @param options the options applied to the socket before it is used.
+     * @return
+     */
+    public static SctpClientSocket createClientSocket(
+            int localSctpPort, SctpSocketOptions options, Logger parentLogger)
+    {
+        long id = sockets.reserve();
+        long ptr = SctpJni.usrsctp_socket(localSctpPort, id, options.values);
         if (ptr == 0)
         {
+            sockets.release(id);
             parentLogger.error("Failed to create client socket");
             return null;
         }
         SctpClientSocket socket = new SctpClientSocket(ptr, id, parentLogger);
-        sockets.put(id, socket);
+        applyOptions(socket, options);
+        sockets.publish(socket);
 
         return socket;
     }
 
     /**
-     * Atomic counter to assign each SctpSocket a unique ID.
+     * Applies the options which are kept by the Java socket rather than by
+     * the stack.
      */
-    private static AtomicLong nextId = new AtomicLong(1);
+    private static void applyOptions(
+            SctpSocket socket, SctpSocketOptions options)
+    {
+        int bufferedAmountLow
+            = options.values[SctpSocketOptions.BUFFERED_AMOUNT_LOW];
+        if (bufferedAmountLow != SctpSocketOptions.UNSET)
+        {
+            socket.setBufferedAmountLowThreshold(bufferedAmountLow);
+        }
+    }
 }
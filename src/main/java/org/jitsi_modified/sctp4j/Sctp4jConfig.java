@@ -0,0 +1,321 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.util.*;
+
+/**
+ * Stack-wide defaults of usrsctp, set through its
+ * <tt>usrsctp_sysctl_set_*</tt> functions by
+ * {@link Sctp4j#init(int, int, Sctp4jConfig)} or
+ * {@link Sctp4j#configure(Sctp4jConfig)}. Most of them are picked up by the
+ * associations set up afterwards, so they are best set before any socket is
+ * created. Sysctls which have not been set keep the values of the stack,
+ * which can be read back with {@link Sctp4j#readConfig()}.
+ *
+ * Instances are immutable and created through a {@link Builder}, which
+ * validates values against the ranges accepted by usrsctp:
+ * <pre>
+ * Sctp4jConfig config = Sctp4jConfig.builder()
+ *     .sendSpace(64 * 1024)
+ *     .recvSpace(64 * 1024)
+ *     .set(Sctp4jConfig.Sysctl.MAX_CHUNKS_ON_QUEUE, 256)
+ *     .build();
+ * </pre>
+ */
+public final class Sctp4jConfig
+{
+    private static final long U32 = 0xFFFFFFFFL;
+
+    /**
+     * The sysctls of usrsctp which can be configured. The order is mirrored
+     * by the native library and must not change; new sysctls are appended.
+     */
+    public enum Sysctl
+    {
+        /** The default size of the send buffer of a socket, in bytes. */
+        SENDSPACE(0, U32),
+        /** The default size of the receive buffer of a socket, in bytes. */
+        RECVSPACE(0, U32),
+        /** Whether explicit congestion notification is enabled. */
+        ECN_ENABLE(0, 1),
+        /** Whether PR-SCTP is enabled. */
+        PR_ENABLE(0, 1),
+        /** The default maximum burst of packets. */
+        MAX_BURST_DEFAULT(0, U32),
+        /** The maximum number of chunks queued per association. */
+        MAX_CHUNKS_ON_QUEUE(0, U32),
+        /** The default SACK delay, in milliseconds. */
+        DELAYED_SACK_TIME_DEFAULT(0, 500),
+        /** The default number of packets after which a SACK is sent. */
+        SACK_FREQ_DEFAULT(0, U32),
+        /** The default heartbeat interval, in milliseconds. */
+        HEARTBEAT_INTERVAL_DEFAULT(0, U32),
+        /** The default maximum retransmission timeout, in milliseconds. */
+        RTO_MAX_DEFAULT(0, U32),
+        /** The default minimum retransmission timeout, in milliseconds. */
+        RTO_MIN_DEFAULT(0, U32),
+        /** The default initial retransmission timeout, in milliseconds. */
+        RTO_INITIAL_DEFAULT(0, U32),
+        /** The default maximum INIT retransmission timeout, in ms. */
+        INIT_RTO_MAX_DEFAULT(0, U32),
+        /** The default lifetime of a state cookie, in milliseconds. */
+        VALID_COOKIE_LIFE_DEFAULT(0, U32),
+        /** The default maximum number of INIT retransmissions. */
+        INIT_RTX_MAX_DEFAULT(0, U32),
+        /** The default maximum number of retransmissions per association. */
+        ASSOC_RTX_MAX_DEFAULT(0, U32),
+        /** The default maximum number of retransmissions per path. */
+        PATH_RTX_MAX_DEFAULT(0, U32),
+        /** The default number of incoming streams. */
+        NR_INCOMING_STREAMS_DEFAULT(1, 65535),
+        /** The default number of outgoing streams. */
+        NR_OUTGOING_STREAMS_DEFAULT(1, 65535),
+        /**
+         * Whether to answer packets for unknown associations with an ABORT
+         * (0), not for INITs (1) or never (2).
+         */
+        BLACKHOLE(0, 2),
+        /** The initial congestion window, in MTUs, 0 for RFC 4960. */
+        INITIAL_CWND(0, U32),
+        /** Whether SACK-IMMEDIATELY is honoured. */
+        ENABLE_SACK_IMMEDIATELY(0, 1),
+        /** The default congestion control module. */
+        DEFAULT_CC_MODULE(0, 3),
+        /** The default stream scheduler. */
+        DEFAULT_SS_MODULE(0, 5),
+        /** The default fragment interleave level. */
+        DEFAULT_FRAG_INTERLEAVE(0, 2),
+        /** The number of retransmissions of a chunk which abort. */
+        MAX_RETRAN_CHUNK(0, 65535),
+        /** The default shutdown guard time, in seconds. */
+        SHUTDOWN_GUARD_TIME_DEFAULT(0, U32),
+        /** The number of freed resources cached stack-wide. */
+        SYSTEM_FREE_RESC_LIMIT(0, U32),
+        /** The number of freed resources cached per association. */
+        ASOC_FREE_RESC_LIMIT(0, U32),
+        /** The time a verification tag is kept from reuse, in seconds. */
+        VTAG_TIME_WAIT(0, U32),
+        /** The minimum residual in a DATA fragment, in bytes. */
+        MIN_RESIDUAL(20, 65535),
+        /** Whether NR-SACK is enabled. */
+        NRSACK_ENABLE(0, 1),
+        /** Whether stream reconfiguration is enabled. */
+        RECONFIG_ENABLE(0, 1);
+
+        final long min;
+
+        final long max;
+
+        Sysctl(long min, long max)
+        {
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @throws IllegalArgumentException if <tt>value</tt> is out of the
+         * range accepted by usrsctp.
+         */
+        void validate(long value)
+        {
+            if (value < min || value > max)
+            {
+                throw new IllegalArgumentException(
+                        name() + ": " + value + " not in [" + min + ", "
+                            + max + "]");
+            }
+        }
+    }
+
+    private static final Sysctl[] SYSCTLS = Sysctl.values();
+
+    /**
+     * The value of a sysctl which has not been set.
+     */
+    static final long UNSET = -1;
+
+    /**
+     * The values of the sysctls indexed by ordinal.
+     */
+    private final long[] values;
+
+    private Sctp4jConfig(long[] values)
+    {
+        this.values = values;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Reads back the configuration of the stack.
+     */
+    static Sctp4jConfig read()
+    {
+        Builder builder = new Builder();
+        for (Sysctl sysctl : SYSCTLS)
+        {
+            long value = SctpJni.usrsctp_sysctl_get(sysctl.ordinal());
+            if (value >= 0)
+            {
+                builder.values[sysctl.ordinal()] = value;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return whether <tt>sysctl</tt> has been set.
+     */
+    public boolean isSet(Sysctl sysctl)
+    {
+        return values[sysctl.ordinal()] != UNSET;
+    }
+
+    /**
+     * @return the value of <tt>sysctl</tt>, or -1 if it has not been set.
+     */
+    public long get(Sysctl sysctl)
+    {
+        return values[sysctl.ordinal()];
+    }
+
+    /**
+     * @return the sysctls which have been set, in order.
+     */
+    public Set<Sysctl> getSet()
+    {
+        Set<Sysctl> set = EnumSet.noneOf(Sysctl.class);
+        for (Sysctl sysctl : SYSCTLS)
+        {
+            if (isSet(sysctl))
+            {
+                set.add(sysctl);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @return a builder initialized with this configuration.
+     */
+    public Builder toBuilder()
+    {
+        Builder builder = new Builder();
+        System.arraycopy(values, 0, builder.values, 0, values.length);
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof Sctp4jConfig
+            && Arrays.equals(values, ((Sctp4jConfig) o).values);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder("Sctp4jConfig{");
+        for (Sysctl sysctl : getSet())
+        {
+            if (str.charAt(str.length() - 1) != '{')
+            {
+                str.append(", ");
+            }
+            str.append(sysctl).append('=').append(get(sysctl));
+        }
+        return str.append('}').toString();
+    }
+
+    public static final class Builder
+    {
+        private final long[] values = new long[SYSCTLS.length];
+
+        private Builder()
+        {
+            Arrays.fill(values, UNSET);
+        }
+
+        /**
+         * Sets a sysctl.
+         *
+         * @throws IllegalArgumentException if <tt>value</tt> is out of the
+         * range accepted by usrsctp.
+         */
+        public Builder set(Sysctl sysctl, long value)
+        {
+            sysctl.validate(value);
+            values[sysctl.ordinal()] = value;
+            return this;
+        }
+
+        public Builder sendSpace(long bytes)
+        {
+            return set(Sysctl.SENDSPACE, bytes);
+        }
+
+        public Builder recvSpace(long bytes)
+        {
+            return set(Sysctl.RECVSPACE, bytes);
+        }
+
+        /**
+         * Sets the default numbers of incoming and outgoing streams.
+         */
+        public Builder streams(int incoming, int outgoing)
+        {
+            Sysctl.NR_OUTGOING_STREAMS_DEFAULT.validate(outgoing);
+            set(Sysctl.NR_INCOMING_STREAMS_DEFAULT, incoming);
+            return set(Sysctl.NR_OUTGOING_STREAMS_DEFAULT, outgoing);
+        }
+
+        public Builder heartbeatInterval(long millis)
+        {
+            return set(Sysctl.HEARTBEAT_INTERVAL_DEFAULT, millis);
+        }
+
+        public Builder blackhole(int mode)
+        {
+            return set(Sysctl.BLACKHOLE, mode);
+        }
+
+        public Builder maxChunksOnQueue(long chunks)
+        {
+            return set(Sysctl.MAX_CHUNKS_ON_QUEUE, chunks);
+        }
+
+        public Builder initialCwnd(long mtus)
+        {
+            return set(Sysctl.INITIAL_CWND, mtus);
+        }
+
+        public Sctp4jConfig build()
+        {
+            return new Sctp4jConfig(values.clone());
+        }
+    }
+}
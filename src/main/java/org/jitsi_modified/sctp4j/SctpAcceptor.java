@@ -0,0 +1,210 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Completes the asynchronous accepts of a listening socket. The socket
+ * registers an upcall with the stack, which tells it when an association is
+ * pending accept, and the non-blocking accept is then run on the executor
+ * the accept was requested with. The upcall itself only schedules it,
+ * since it is invoked by the stack in the middle of processing a packet.
+ *
+ * @param <T> the type of the accepted sockets.
+ */
+class SctpAcceptor<T extends SctpSocket>
+{
+    /**
+     * An accept which has not completed yet.
+     */
+    private static final class Pending<T>
+    {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        final Executor executor;
+
+        Pending(Executor executor)
+        {
+            this.executor = executor;
+        }
+    }
+
+    private final SctpSocket socket;
+
+    /**
+     * The non-blocking accept, returning <tt>null</tt> when no association is
+     * pending.
+     */
+    private final Supplier<T> accept;
+
+    /**
+     * Guarded by <tt>this</tt>.
+     */
+    private final Deque<Pending<T>> pending = new ArrayDeque<>();
+
+    /**
+     * Sockets accepted for accepts which had been cancelled meanwhile, handed
+     * to the next accept. Guarded by <tt>this</tt>.
+     */
+    private final Deque<T> unclaimed = new ArrayDeque<>();
+
+    private boolean upcallSet = false;
+
+    private boolean closed = false;
+
+    SctpAcceptor(SctpSocket socket, Supplier<T> accept)
+    {
+        this.socket = socket;
+        this.accept = accept;
+    }
+
+    /**
+     * Accepts the next incoming association.
+     *
+     * @param executor the executor to accept on, and to complete the
+     * returned future on.
+     * @return a future completed with the accepted socket, or exceptionally
+     * with an {@link IOException} if the listening socket is closed first.
+     */
+    CompletableFuture<T> acceptAsync(Executor executor)
+    {
+        Pending<T> p = new Pending<>(executor);
+        synchronized (this)
+        {
+            if (closed)
+            {
+                p.future.completeExceptionally(
+                        new IOException("Socket is closed"));
+                return p.future;
+            }
+            T s;
+            while ((s = unclaimed.poll()) != null)
+            {
+                if (p.future.complete(s))
+                {
+                    return p.future;
+                }
+            }
+            pending.add(p);
+
+            if (!upcallSet)
+            {
+                try
+                {
+                    long ptr = socket.lockPtr();
+                    try
+                    {
+                        SctpJni.usrsctp_set_upcall(ptr, true);
+                    }
+                    finally
+                    {
+                        socket.unlockPtr();
+                    }
+                    upcallSet = true;
+                }
+                catch (IOException ioe)
+                {
+                    pending.remove(p);
+                    p.future.completeExceptionally(ioe);
+                    return p.future;
+                }
+            }
+        }
+
+        // An association may have come up before the upcall was set or
+        // before this accept was pending.
+        executor.execute(this::acceptPending);
+        return p.future;
+    }
+
+    /**
+     * Called by the upcall of the stack when the socket has become
+     * readable, which for a listening socket means that an association is
+     * pending accept.
+     */
+    void onReadable()
+    {
+        Pending<T> p;
+        synchronized (this)
+        {
+            p = pending.peek();
+        }
+        if (p != null)
+        {
+            p.executor.execute(this::acceptPending);
+        }
+    }
+
+    /**
+     * Accepts the pending associations for as long as there are accepts
+     * waiting for them.
+     */
+    private synchronized void acceptPending()
+    {
+        while (!pending.isEmpty())
+        {
+            // Drop the accepts cancelled meanwhile.
+            if (pending.peek().future.isDone())
+            {
+                pending.poll();
+                continue;
+            }
+
+            T s = accept.get();
+            if (s == null)
+            {
+                break;
+            }
+
+            boolean claimed = false;
+            Pending<T> p;
+            while (!claimed && (p = pending.poll()) != null)
+            {
+                claimed = p.future.complete(s);
+            }
+            if (!claimed)
+            {
+                unclaimed.add(s);
+            }
+        }
+    }
+
+    /**
+     * Fails the accepts which are still pending, as the socket is being
+     * closed.
+     */
+    void close()
+    {
+        List<Pending<T>> failed;
+        synchronized (this)
+        {
+            closed = true;
+            failed = new ArrayList<>(pending);
+            pending.clear();
+            unclaimed.clear();
+        }
+        IOException ioe = new IOException("Socket is closed");
+        for (Pending<T> p : failed)
+        {
+            p.future.completeExceptionally(ioe);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.nio.*;
+
+/**
+ * Interface the sctp socket uses to send out all the network packets the
+ * stack has emitted during one call into it (e.g. handling an incoming
+ * packet or sending a message) at once, so that they can be written with a
+ * single vectored or batched I/O call.
+ *
+ * The packets are read-only views of native memory which are only valid
+ * until this method returns, so they have to be consumed synchronously.
+ */
+public interface SctpBatchDataSender
+{
+    /**
+     * @param packets the packets, each between the buffer's position and its
+     * limit, in the order the stack has emitted them.
+     * @param count the number of packets in <code>packets</code>.
+     * @return 0 if the packets were successfully sent, -1 otherwise
+     */
+    int send(ByteBuffer[] packets, int count);
+}
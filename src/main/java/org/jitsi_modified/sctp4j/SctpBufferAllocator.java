@@ -0,0 +1,44 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.nio.*;
+
+/**
+ * A pool of buffers which outgoing network packets are copied into before
+ * they are handed to an {@link SctpBufferDataSender}. Lets the application
+ * keep the packets that outlive the send callback in reusable memory.
+ */
+public interface SctpBufferAllocator
+{
+    /**
+     * Leases a buffer which is able to hold at least <code>size</code> bytes.
+     *
+     * @param size the number of bytes the buffer will be filled with.
+     * @return a buffer with its position at 0 and at least <code>size</code>
+     * bytes remaining.
+     */
+    ByteBuffer allocate(int size);
+
+    /**
+     * Returns a buffer previously leased through {@link #allocate(int)} to
+     * the pool.
+     *
+     * @param buffer the buffer to return.
+     */
+    void release(ByteBuffer buffer);
+}
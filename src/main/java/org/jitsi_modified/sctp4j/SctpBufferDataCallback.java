@@ -0,0 +1,44 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.nio.*;
+
+/**
+ * Callback used to listen for incoming data on SCTP socket without a
+ * <code>byte[]</code> being allocated for every received message.
+ *
+ * The data is a view of the native receive buffer of the SCTP stack. It must
+ * be treated as read-only and it is only valid until the callback returns;
+ * anything that has to outlive the call must be copied out of it.
+ */
+public interface SctpBufferDataCallback
+{
+    /**
+     * Callback fired by <code>SctpSocket</code> to notify about incoming data.
+     * @param data the received message, between the buffer's position and its
+     * limit.
+     * @param sid SCTP stream identifier.
+     * @param ssn
+     * @param tsn
+     * @param ppid payload protocol identifier.
+     * @param context
+     * @param flags
+     */
+    void onSctpPacket(ByteBuffer data, int sid, int ssn, int tsn, long ppid,
+                      int context, int flags);
+}
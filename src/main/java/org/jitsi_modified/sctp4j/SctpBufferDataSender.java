@@ -0,0 +1,45 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.nio.*;
+
+/**
+ * Interface the sctp socket uses when data has been processed by the stack
+ * and wants to send it out, without going through a freshly allocated
+ * <code>byte[]</code> for every packet.
+ *
+ * If no {@link SctpBufferAllocator} is set on the socket, the packet is a
+ * read-only view of the native memory of the SCTP stack. It is only valid
+ * until this method returns, so it has to be consumed (e.g. encrypted or
+ * written to a channel) synchronously.
+ *
+ * If an {@link SctpBufferAllocator} is set on the socket, the packet has been
+ * copied into a buffer leased from it. The ownership of that buffer passes to
+ * the sender, which must hand it back through
+ * {@link SctpBufferAllocator#release(ByteBuffer)} once it is done with it,
+ * whether or not sending succeeded.
+ */
+public interface SctpBufferDataSender
+{
+    /**
+     * @param packet the packet data, between the buffer's position and its
+     * limit.
+     * @return 0 if the packet was successfully sent, -1 otherwise
+     */
+    int send(ByteBuffer packet);
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.nio.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Hands the callbacks of a socket off the threads of the SCTP stack to an
+ * {@link Executor}. Callbacks are queued in a bounded ring of preallocated
+ * entries and delivered in order by a single drain task at a time, so the
+ * callbacks of a socket never run concurrently even on a multi-threaded
+ * executor.
+ *
+ * Received messages are copied into the buffer of their entry, which is
+ * reused once the message has been delivered, so that the steady state does
+ * not allocate. Lifecycle events are never dropped: the ring has room for
+ * one of each kind besides <tt>capacity</tt> messages, and an event which is
+ * still queued absorbs the later ones of its kind, so the ring never grows.
+ *
+ * A callback which throws is logged and does not hold back the entries
+ * queued after it. A message whose drain task the executor rejects is
+ * counted as dropped; it stays queued and is delivered by the next drain
+ * task the executor accepts, if any.
+ *
+ * Under {@link SctpOverflowPolicy#BLOCK} a full ring makes the producer
+ * wait for the drain task, which cannot run if it is queued behind the
+ * producer on the same thread, e.g. when an event loop both feeds the stack
+ * and is the executor. A producer on the thread which last ran the drain
+ * task therefore drops the message instead of waiting, and any other waits
+ * at most {@link #BLOCK_TIMEOUT_NANOS}.
+ */
+class SctpCallbackDispatcher
+    implements Runnable
+{
+    /* The kinds of entries. */
+    static final int DATA = 0;
+
+    static final int READY = 1;
+
+    static final int DISCONNECTED = 2;
+
+    static final int BUFFERED_AMOUNT_LOW = 3;
+
+    /**
+     * The number of kinds of events, which are queued at most once each.
+     */
+    private static final int EVENT_KINDS = 3;
+
+    /**
+     * The maximum number of entries delivered by one run of the drain task
+     * before it yields the executor thread.
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    /**
+     * How long a producer waits for room under
+     * {@link SctpOverflowPolicy#BLOCK} before dropping the message.
+     */
+    static final long BLOCK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * A queued callback.
+     */
+    static final class Entry
+    {
+        int kind;
+
+        ByteBuffer data;
+
+        int sid;
+
+        int ssn;
+
+        int tsn;
+
+        long ppid;
+
+        int context;
+
+        int flags;
+    }
+
+    private final SctpSocket socket;
+
+    private final Executor executor;
+
+    private final int capacity;
+
+    private final SctpOverflowPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * The ring of entries; its length is a power of two. Guarded by
+     * {@link #lock}.
+     */
+    private final Entry[] ring;
+
+    private int head;
+
+    private int size;
+
+    /**
+     * The bits <tt>1 &lt;&lt; kind</tt> of the events which are queued.
+     * Guarded by {@link #lock}.
+     */
+    private int queuedEvents;
+
+    /**
+     * The entry the drain task is delivering, swapped out of the ring so
+     * that producers may reuse the slot meanwhile. Only accessed by the
+     * drain task.
+     */
+    private Entry delivering = new Entry();
+
+    /**
+     * Whether a drain task has been submitted and has not finished yet.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * The thread which has last run the drain task.
+     */
+    private volatile Thread drainThread;
+
+    private final LongAdder dropped = new LongAdder();
+
+    SctpCallbackDispatcher(
+            SctpSocket socket,
+            Executor executor,
+            int capacity,
+            SctpOverflowPolicy policy)
+    {
+        this.socket = socket;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+
+        int entries = capacity + EVENT_KINDS;
+        int length = Integer.highestOneBit(entries);
+        if (length < entries)
+        {
+            length <<= 1;
+        }
+        ring = new Entry[length];
+        for (int i = 0; i < length; i++)
+        {
+            ring[i] = new Entry();
+        }
+    }
+
+    /**
+     * @return the number of received messages dropped because the queue was
+     * full or the executor rejected their delivery.
+     */
+    long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * Queues a received message, copying its data.
+     *
+     * @return <tt>false</tt> if the message has been dropped.
+     */
+    boolean dispatchData(
+            ByteBuffer data, int sid, int ssn, int tsn, long ppid,
+            int context, int flags)
+    {
+        long deadline = 0;
+
+        lock.lock();
+        try
+        {
+            while (size >= capacity)
+            {
+                if (policy == SctpOverflowPolicy.DROP_NEWEST)
+                {
+                    dropped.increment();
+                    return false;
+                }
+                else if (policy == SctpOverflowPolicy.DROP_OLDEST
+                        && ring[head].kind == DATA)
+                {
+                    ring[head].data.clear();
+                    head = (head + 1) & (ring.length - 1);
+                    size--;
+                    dropped.increment();
+                }
+                else if (policy == SctpOverflowPolicy.DROP_OLDEST)
+                {
+                    // Events are not dropped, so the newest message goes.
+                    dropped.increment();
+                    return false;
+                }
+                else if (!schedule())
+                {
+                    // Nothing would drain the ring.
+                    dropped.increment();
+                    return false;
+                }
+                // The executor may have drained the ring in place.
+                else if (size >= capacity)
+                {
+                    if (deadline == 0)
+                    {
+                        deadline = System.nanoTime() + BLOCK_TIMEOUT_NANOS;
+                    }
+                    if (!awaitNotFull(deadline))
+                    {
+                        dropped.increment();
+                        return false;
+                    }
+                }
+            }
+
+            Entry entry = append();
+            entry.kind = DATA;
+            entry.data = copy(data, entry.data);
+            entry.sid = sid;
+            entry.ssn = ssn;
+            entry.tsn = tsn;
+            entry.ppid = ppid;
+            entry.context = context;
+            entry.flags = flags;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if (!schedule())
+        {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the drain task to make room in the ring. Must be called with
+     * {@link #lock} held.
+     *
+     * @param deadline the {@link System#nanoTime()} to wait until.
+     * @return <tt>false</tt> if the caller is to give up: the drain task may
+     * be queued behind it on its own thread, the deadline has passed or the
+     * thread has been interrupted.
+     */
+    private boolean awaitNotFull(long deadline)
+    {
+        if (Thread.currentThread() == drainThread)
+        {
+            return false;
+        }
+
+        long nanos = deadline - System.nanoTime();
+        if (nanos <= 0)
+        {
+            return false;
+        }
+        try
+        {
+            notFull.awaitNanos(nanos);
+            return true;
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Queues a lifecycle event of the socket, unless one of the same kind is
+     * queued already.
+     *
+     * @param kind one of {@link #READY}, {@link #DISCONNECTED} and
+     * {@link #BUFFERED_AMOUNT_LOW}.
+     */
+    void dispatchEvent(int kind)
+    {
+        lock.lock();
+        try
+        {
+            if ((queuedEvents & (1 << kind)) != 0)
+            {
+                return;
+            }
+            queuedEvents |= 1 << kind;
+            append().kind = kind;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        schedule();
+    }
+
+    /**
+     * Returns the entry at the tail of the ring, which must not be full.
+     */
+    private Entry append()
+    {
+        Entry entry = ring[(head + size) & (ring.length - 1)];
+        size++;
+        return entry;
+    }
+
+    /**
+     * Copies the remaining bytes of <tt>src</tt> into <tt>dst</tt>, or into
+     * a new buffer if <tt>dst</tt> is too small, and returns the buffer
+     * ready to be read.
+     */
+    private static ByteBuffer copy(ByteBuffer src, ByteBuffer dst)
+    {
+        int len = src.remaining();
+        if (dst == null || dst.capacity() < len)
+        {
+            dst = ByteBuffer.allocate(Math.max(len, 256));
+        }
+        dst.clear();
+        dst.put(src.duplicate()).flip();
+        return dst;
+    }
+
+    /**
+     * Submits a drain task unless one is pending.
+     *
+     * @return <tt>false</tt> if the executor has rejected the task.
+     */
+    private boolean schedule()
+    {
+        if (scheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                executor.execute(this);
+            }
+            catch (RejectedExecutionException ree)
+            {
+                scheduled.set(false);
+                socket.logger.error(
+                        "Callback executor rejected the delivery of"
+                            + " callbacks",
+                        ree);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delivers queued callbacks. Runs on the executor.
+     */
+    @Override
+    public void run()
+    {
+        drainThread = Thread.currentThread();
+        try
+        {
+            for (int i = 0; i < DRAIN_BATCH; i++)
+            {
+                Entry entry;
+
+                lock.lock();
+                try
+                {
+                    if (size == 0)
+                    {
+                        break;
+                    }
+                    // Take the entry out of the ring, leaving the spare
+                    // entry in its slot.
+                    entry = ring[head];
+                    ring[head] = delivering;
+                    delivering = entry;
+                    head = (head + 1) & (ring.length - 1);
+                    size--;
+                    if (entry.kind != DATA)
+                    {
+                        queuedEvents &= ~(1 << entry.kind);
+                    }
+                    notFull.signal();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+
+                try
+                {
+                    deliver(entry);
+                }
+                catch (RuntimeException e)
+                {
+                    socket.logger.error("Callback threw", e);
+                }
+            }
+        }
+        finally
+        {
+            scheduled.set(false);
+            rescheduleIfPending();
+        }
+    }
+
+    /**
+     * Submits a drain task for the entries queued after the last check of a
+     * drain task, or left by a full batch.
+     */
+    private void rescheduleIfPending()
+    {
+        boolean pending;
+        lock.lock();
+        try
+        {
+            pending = size != 0;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if (pending)
+        {
+            schedule();
+        }
+    }
+
+    private void deliver(Entry entry)
+    {
+        switch (entry.kind)
+        {
+            case DATA:
+                socket.deliverData(
+                        entry.data,
+                        entry.sid, entry.ssn, entry.tsn, entry.ppid,
+                        entry.context, entry.flags);
+                break;
+            case READY:
+            case DISCONNECTED:
+            case BUFFERED_AMOUNT_LOW:
+                socket.deliverEvent(entry.kind);
+                break;
+        }
+    }
+}
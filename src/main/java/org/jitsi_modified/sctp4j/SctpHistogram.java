@@ -0,0 +1,199 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of durations in nanoseconds with fixed, power of two buckets:
+ * bucket <tt>i</tt> counts the values in <tt>[2^(i-1), 2^i)</tt>, bucket 0
+ * the values below 1 and the last bucket everything from about one second
+ * up. Recording is allocation free and lock free, and the counters are
+ * striped so that the threads of many sockets recording at once do not
+ * contend on them.
+ */
+public final class SctpHistogram
+{
+    /**
+     * The number of buckets.
+     */
+    public static final int BUCKETS = 32;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    private final LongAdder sum = new LongAdder();
+
+    public SctpHistogram()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the index of the bucket of <tt>nanos</tt>.
+     */
+    static int bucket(long nanos)
+    {
+        if (nanos <= 0)
+        {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+    }
+
+    /**
+     * @return the exclusive upper bound of bucket <tt>i</tt> in nanoseconds,
+     * or {@link Long#MAX_VALUE} for the last bucket.
+     */
+    public static long upperBound(int i)
+    {
+        return i >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(long nanos)
+    {
+        counts[bucket(nanos)].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Records the time elapsed since <tt>startNanos</tt>.
+     *
+     * @param startNanos a value of {@link System#nanoTime()}.
+     */
+    void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot()
+    {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            snapshot[i] = counts[i].sum();
+        }
+        return new Snapshot(snapshot, sum.sum());
+    }
+
+    /**
+     * The counts of a histogram at some point. The buckets are read one by
+     * one while values are being recorded, so a snapshot is not atomic.
+     */
+    public static final class Snapshot
+    {
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        private Snapshot(long[] counts, long sum)
+        {
+            long count = 0;
+            for (long c : counts)
+            {
+                count += c;
+            }
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * @return the count of bucket <tt>i</tt>.
+         */
+        public long getCount(int i)
+        {
+            return counts[i];
+        }
+
+        /**
+         * @return the number of recorded values.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return the sum of the recorded values in nanoseconds.
+         */
+        public long getSum()
+        {
+            return sum;
+        }
+
+        /**
+         * @return the mean of the recorded values in nanoseconds, or 0 if
+         * there are none.
+         */
+        public double getMean()
+        {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns an upper bound of a percentile, i.e. the upper bound of the
+         * bucket it falls into.
+         *
+         * @param p the percentile, between 0 and 100.
+         * @return the upper bound in nanoseconds, or 0 if there are no
+         * recorded values.
+         */
+        public long getPercentile(double p)
+        {
+            if (p < 0 || p > 100)
+            {
+                throw new IllegalArgumentException("p: " + p);
+            }
+            if (count == 0)
+            {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(p / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank && seen > 0)
+                {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "{count=" + count + ", mean=" + (long) getMean()
+                + ", p50<" + getPercentile(50)
+                + ", p99<" + getPercentile(99)
+                + ", buckets=" + Arrays.toString(counts) + "}";
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.jitsi_modified.sctp4j;
 import org.jitsi.utils.*;
 import org.jitsi.utils.logging2.*;
 
+import java.nio.*;
+
 public class SctpJni {
     private static final Logger logger =
         new LoggerImpl(SctpJni.class.getName());
@@ -33,8 +35,6 @@ public class SctpJni {
         }
     }
 
-    public static IncomingSctpDataHandler incomingSctpDataHandler = null;
-    public static OutgoingSctpDataHandler outgoingSctpDataHandler = null;
 
     /**
      * Passes network packet to native SCTP stack counterpart.
@@ -47,12 +47,84 @@ public class SctpJni {
             long ptr,
             byte[] pkt, int off, int len);
 
+    /**
+     * Passes network packet held in a direct buffer to native SCTP stack
+     * counterpart. The native memory of the buffer is handed to the stack as
+     * is.
+     * @param ptr native socket pointer.
+     * @param pkt direct buffer holding network packet data.
+     * @param off the position in the buffer where packet data starts.
+     * @param len packet data length.
+     */
+    public static native void on_network_in_direct(
+            long ptr,
+            ByteBuffer pkt, int off, int len);
+
+    /**
+     * Passes a batch of network packets held in direct buffers to native SCTP
+     * stack counterpart in a single call. The bytes between each buffer's
+     * position and its limit make up one packet.
+     * @param ptr native socket pointer.
+     * @param pkts direct buffers holding network packet data.
+     * @param off the index of the first packet in <code>pkts</code>.
+     * @param count the number of packets to pass.
+     */
+    public static native void on_network_in_batch(
+            long ptr,
+            ByteBuffer[] pkts, int off, int count);
+
+    /**
+     * Passes a batch of network packets held in direct buffers and destined
+     * to different sockets to native SCTP stack counterpart in a single call.
+     * @param ptrs native socket pointers, <code>ptrs[i]</code> being the
+     * socket of <code>pkts[off + i]</code>. Packets with a pointer of 0 are
+     * skipped.
+     * @param pkts direct buffers holding network packet data.
+     * @param off the index of the first packet in <code>pkts</code>.
+     * @param count the number of packets to pass.
+     */
+    public static native void on_network_in_multi(
+            long[] ptrs,
+            ByteBuffer[] pkts, int off, int count);
+
     /**
      * Waits for incoming connection.
      * @param ptr native socket pointer.
      */
     public static native boolean usrsctp_accept(long ptr);
 
+    /**
+     * Accepts an incoming association on a socket made passive with
+     * {@link #usrsctp_listen_all(long, int)}, leaving it listening.
+     * @param ptr native listening socket pointer.
+     * @param address receives the address of the peer, which is the id of
+     * the socket created for it with {@link #usrsctp_association(int, long)}.
+     * @return the usrsctp socket of the association, to be handed to
+     * {@link #usrsctp_attach(long, long)}, or 0 if none is pending.
+     */
+    public static native long usrsctp_accept_association(
+            long ptr, long[] address);
+
+    /**
+     * Creates the native counterpart of a socket for an association accepted
+     * by a listening socket. It has no usrsctp socket until one is attached,
+     * but registers its id as an address so that the packets of the peer can
+     * be passed to the stack.
+     * @param localPort the SCTP port of the listening socket.
+     * @param id the id of the socket.
+     * @return native socket pointer or 0 if operation failed.
+     */
+    public static native long usrsctp_association(int localPort, long id);
+
+    /**
+     * Attaches an accepted usrsctp socket to the native counterpart of a
+     * socket created with {@link #usrsctp_association(int, long)}.
+     * @param ptr native socket pointer, or 0 to close <tt>so</tt>.
+     * @param so the usrsctp socket returned by
+     * {@link #usrsctp_accept_association(long, long[])}.
+     */
+    public static native void usrsctp_attach(long ptr, long so);
+
     /**
      * Closes SCTP socket.
      * @param ptr native socket pointer.
@@ -73,6 +145,75 @@ public class SctpJni {
      */
     public static native boolean usrsctp_finish();
 
+    /**
+     * Returns the number of bytes queued in the send buffer of a socket,
+     * i.e. not yet acknowledged by the peer.
+     * @param ptr native socket pointer.
+     * @return the number of bytes or <code>-1</code> in case of an error.
+     */
+    public static native int usrsctp_get_buffered_amount(long ptr);
+
+    /**
+     * Reads the stack-wide counters of the SCTP stack.
+     * @param counters receives the counters indexed as by
+     * {@link SctpStackStats}.
+     */
+    public static native void usrsctp_get_stat(long[] counters);
+
+    /**
+     * Reads the status of the associations of several sockets.
+     * @param ptrs native socket pointers. Sockets with a pointer of 0 are
+     * skipped.
+     * @param count the number of sockets.
+     * @param status receives the fields of {@link SctpSocketStats} as
+     * columns of <code>stride</code> values; the field <code>f</code> of
+     * <code>ptrs[i]</code> is written at <code>f * stride + i</code>. The
+     * state of a socket the status of which can not be read is set to
+     * <code>-1</code>.
+     * @param stride the length of a column.
+     * @return the number of sockets the status has been read of.
+     */
+    public static native int usrsctp_get_status(
+            long[] ptrs, int count, int[] status, int stride);
+
+    /**
+     * Returns the size of the send buffer of a socket (SO_SNDBUF).
+     * @param ptr native socket pointer.
+     * @return the size in bytes or <code>-1</code> in case of an error.
+     */
+    public static native int usrsctp_get_send_buffer_size(long ptr);
+
+    /**
+     * Reads a sysctl of the SCTP stack.
+     * @param sysctl the ordinal of an {@link Sctp4jConfig.Sysctl}.
+     * @return the value or <code>-1</code> if the sysctl is unknown.
+     */
+    public static native long usrsctp_sysctl_get(int sysctl);
+
+    /**
+     * Sets a sysctl of the SCTP stack.
+     * @param sysctl the ordinal of an {@link Sctp4jConfig.Sysctl}.
+     * @param value the value.
+     * @return <code>true</code> on success.
+     */
+    public static native boolean usrsctp_sysctl_set(int sysctl, long value);
+
+    /**
+     * Returns the time until the next timer of the SCTP stack expires,
+     * counted from the last {@link #usrsctp_handle_timers(int)}.
+     * @return the time in milliseconds or <code>-1</code> if no timer is
+     * pending.
+     */
+    public static native int usrsctp_get_timeout();
+
+    /**
+     * Advances the timers of the SCTP stack initialized with
+     * {@link #usrsctp_init_nothreads(int, int)} and runs the expired ones on
+     * the calling thread.
+     * @param elapsedMillis the time elapsed since the last call.
+     */
+    public static native void usrsctp_handle_timers(int elapsedMillis);
+
     /**
      * Initializes native SCTP counterpart.
      * @param port UDP encapsulation port.
@@ -82,86 +223,170 @@ public class SctpJni {
      */
     public static native boolean usrsctp_init(int port, int sctp_debug_mask);
 
+    /**
+     * Initializes native SCTP counterpart without starting the threads of
+     * the stack. Its timers then only run when driven by
+     * {@link #usrsctp_handle_timers(int)}.
+     * @param port UDP encapsulation port.
+     * @param sctp_debug_mask SCTP debug flags to enable.
+     * @return <code>true</code> on success.
+     */
+    public static native boolean usrsctp_init_nothreads(
+            int port, int sctp_debug_mask);
+
     /**
      * Makes socket passive.
      * @param ptr native socket pointer.
      */
     public static native void usrsctp_listen(long ptr);
 
+    /**
+     * Makes socket passive for the associations of any address.
+     * @param ptr native socket pointer.
+     * @param backlog the maximum number of associations pending accept.
+     */
+    public static native void usrsctp_listen_all(long ptr, int backlog);
+
     /**
      * Sends given <code>data</code> on selected SCTP stream using given payload
      * protocol identifier.
-     * FIXME add offset and length buffer parameters.
      * @param ptr native socket pointer.
      * @param data the data to send.
      * @param off the position of the data inside the buffer
      * @param len data length.
-     * @param ordered should we care about message order ?
+     * @param flags the <tt>snd_flags</tt> of the message, see
+     * {@link SendOptions}.
      * @param sid SCTP stream identifier
      * @param ppid payload protocol identifier
-     * @return sent bytes count or <code>-1</code> in case of an error.
+     * @param prPolicy the PR-SCTP policy of the message, see
+     * {@link SendOptions}.
+     * @param prValue the value of the PR-SCTP policy.
+     * @return sent bytes count or one of the negative codes of
+     * {@link SctpSendResult}.
      */
     public static native int usrsctp_send(
             long ptr,
             byte[] data, int off, int len,
-            boolean ordered,
+            int flags,
+            int sid,
+            int ppid,
+            int prPolicy,
+            int prValue);
+
+    /**
+     * Sends the contents of the given direct <code>data</code> buffer on
+     * selected SCTP stream using given payload protocol identifier. The
+     * native memory of the buffer is passed to the SCTP stack without being
+     * copied on the Java side or pinned.
+     * @param ptr native socket pointer.
+     * @param data the direct buffer holding the data to send.
+     * @param off the position of the data inside the buffer
+     * @param len data length.
+     * @param flags the <tt>snd_flags</tt> of the message, see
+     * {@link SendOptions}.
+     * @param sid SCTP stream identifier
+     * @param ppid payload protocol identifier
+     * @param prPolicy the PR-SCTP policy of the message, see
+     * {@link SendOptions}.
+     * @param prValue the value of the PR-SCTP policy.
+     * @return sent bytes count or one of the negative codes of
+     * {@link SctpSendResult}.
+     */
+    public static native int usrsctp_send_direct(
+            long ptr,
+            ByteBuffer data, int off, int len,
+            int flags,
             int sid,
-            int ppid);
+            int ppid,
+            int prPolicy,
+            int prValue);
+
+    /**
+     * Sends a batch of messages in a single call. Sending stops at the
+     * first message the socket rejects for lack of room or for being closed
+     * or not connected, the remaining messages getting the same result.
+     * @param ptr native socket pointer.
+     * @param buffers direct or array-backed buffers holding the messages,
+     * the bytes between the position and the limit of each being sent.
+     * @param params the parameters of the messages, see
+     * {@link SctpSendBatch}.
+     * @param results receives the sent bytes count or one of the negative
+     * codes of {@link SctpSendResult} for each message.
+     * @param count the number of messages.
+     * @return the number of messages sent.
+     */
+    public static native int usrsctp_send_batch(
+            long ptr,
+            ByteBuffer[] buffers,
+            int[] params,
+            int[] results,
+            int count);
+
+    /**
+     * Sends the concatenated contents of the given buffers as a single
+     * message on selected SCTP stream using given payload protocol
+     * identifier. The bytes between the position and the limit of each
+     * buffer are gathered by the native code; the positions of the buffers
+     * are left unchanged.
+     * @param ptr native socket pointer.
+     * @param parts direct or array-backed buffers holding the parts of the
+     * message. <code>null</code> elements are skipped.
+     * @param off the index of the first part in <code>parts</code>.
+     * @param count the number of parts.
+     * @param flags the <tt>snd_flags</tt> of the message, see
+     * {@link SendOptions}.
+     * @param sid SCTP stream identifier
+     * @param ppid payload protocol identifier
+     * @param prPolicy the PR-SCTP policy of the message, see
+     * {@link SendOptions}.
+     * @param prValue the value of the PR-SCTP policy.
+     * @return sent bytes count or one of the negative codes of
+     * {@link SctpSendResult}.
+     */
+    public static native int usrsctp_send_gather(
+            long ptr,
+            ByteBuffer[] parts, int off, int count,
+            int flags,
+            int sid,
+            int ppid,
+            int prPolicy,
+            int prValue);
+
+    /**
+     * Enables or disables egress batching for a socket. While enabled, the
+     * packets the stack emits during a call made on behalf of the socket are
+     * handed to Java together at the end of the call rather than one by
+     * one.
+     * @param ptr native socket pointer.
+     * @param enable whether to batch.
+     */
+    public static native void usrsctp_set_egress_batching(
+        long ptr, boolean enable);
+
+    /**
+     * Sets or clears the upcall through which the stack tells
+     * {@link Sctp4j} about the events of a socket, such as an association
+     * pending accept on a listening socket.
+     * @param ptr native socket pointer.
+     * @param enable whether to set the upcall.
+     */
+    public static native void usrsctp_set_upcall(long ptr, boolean enable);
 
     /**
      * Creates native SCTP socket and returns pointer to it.
      * @param localPort local SCTP socket port.
+     * @param options the socket options indexed as by
+     * {@link SctpSocketOptions}, -1 leaving an option at its default.
      * @return native socket pointer or 0 if operation failed.
      */
-    public static native long usrsctp_socket(int localPort, long index);
+    public static native long usrsctp_socket(
+            int localPort, long index, int[] options);
 
     /*
     FIXME to be added?
     int usrsctp_shutdown(struct socket *so, int how);
     */
 
-    /**
-     * Method fired by native counterpart to notify about incoming data.  We just invoke the incomingSctpDataHandler
-     * (if it is not null) with the received data.
-     *
-     * @param socketAddr native socket pointer
-     * @param data buffer holding received data
-     * @param sid stream id
-     * @param ssn
-     * @param tsn
-     * @param ppid payload protocol identifier
-     * @param context
-     * @param flags
-     */
-    public static void onSctpInboundPacket(
-            long socketAddr, byte[] data, int sid, int ssn, int tsn, long ppid,
-            int context, int flags)
-    {
-        if (incomingSctpDataHandler != null) {
-            incomingSctpDataHandler.apply(socketAddr, data, sid, ssn, tsn, ppid, context, flags);
-        }
-    }
-
-    /**
-     * Method fired by native counterpart when SCTP stack wants to send
-     * network packet.  Invokes the outgoingSctpDataHandler (if not null) with the data.
-     * @param socketAddr native socket pointer
-     * @param data buffer holding packet data
-     * @param tos type of service???
-     * @param set_df use IP don't fragment option
-     * @return 0 if the packet has been successfully sent or -1 otherwise.
-     */
-    public static int onSctpOutboundPacket(
-            long socketAddr, byte[] data, int tos, int set_df)
-    {
-        if (outgoingSctpDataHandler != null) {
-            outgoingSctpDataHandler.apply(socketAddr, data, tos, set_df);
-            return 0;
-        }
-        // FIXME handle tos and set_df
-        return -1;
-    }
-
     /**
      * Method fired by native counterpart to log a debug message.
      * @param message the message to log
@@ -0,0 +1,246 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import org.jitsi.utils.logging2.*;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * An SctpListenerSocket listens on a local SCTP port for the associations of
+ * any number of peers, each of which is accepted as an
+ * {@link SctpServerSocket} of its own while this socket keeps listening.
+ * All the associations share the one usrsctp socket and bind of this socket.
+ *
+ * As the stack is not attached to a network, each peer needs an address to
+ * which its packets are passed before its association is accepted: the
+ * application opens a socket for each peer with {@link #openAssociation()},
+ * sets its senders and passes the packets received from the peer to it with
+ * its <tt>onConnIn</tt> methods. Once the association is up,
+ * {@link #accept()} returns that socket, which is then ready for use.
+ */
+public class SctpListenerSocket extends SctpSocket
+{
+    /**
+     * The default maximum number of associations pending accept.
+     */
+    public static final int DEFAULT_BACKLOG = 128;
+
+    /**
+     * The local SCTP port, which is shared with the sockets of the peers.
+     */
+    final int localPort;
+
+    private final Logger parentLogger;
+
+    /**
+     * Receives the address of the peer of an accepted association.
+     */
+    private final long[] acceptedAddress = new long[1];
+
+    /**
+     * Completes {@link #acceptAsync(Executor)}.
+     */
+    private final SctpAcceptor<SctpServerSocket> acceptor
+        = new SctpAcceptor<>(this, this::accept);
+
+    public SctpListenerSocket(
+            long ptr, long id, int localPort, Logger parentLogger)
+    {
+        super(ptr, id, parentLogger);
+        this.localPort = localPort;
+        this.parentLogger = parentLogger;
+    }
+
+    /**
+     * Makes this socket passive with the default backlog.
+     */
+    public void listen()
+    {
+        listen(DEFAULT_BACKLOG);
+    }
+
+    /**
+     * Makes this socket passive for the associations of all the peers opened
+     * with {@link #openAssociation()}.
+     *
+     * @param backlog the maximum number of associations pending accept.
+     */
+    public void listen(int backlog)
+    {
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Listener socket can't listen: ", ioe);
+            return;
+        }
+
+        try
+        {
+            SctpJni.usrsctp_listen_all(ptr, backlog);
+        }
+        finally
+        {
+            unlockPtr();
+        }
+    }
+
+    /**
+     * Opens the socket of a new peer. The packets of the peer are to be
+     * passed to the returned socket, which also emits the packets destined
+     * to the peer, from the first one of the handshake on.
+     *
+     * @return the socket of the peer, which {@link #accept()} returns once
+     * its association is up, or <tt>null</tt> if it could not be created.
+     */
+    public SctpServerSocket openAssociation()
+    {
+        return Sctp4j.createAssociationSocket(this, parentLogger);
+    }
+
+    /**
+     * Accepts an incoming association. Like
+     * {@link SctpServerSocket#accept()}, doesn't block.
+     *
+     * The accepted socket fires
+     * {@link SctpSocketEventHandler#onReady()} before it is returned.
+     *
+     * @return the socket opened with {@link #openAssociation()} for the peer
+     * of the association, or <tt>null</tt> if no association is pending.
+     */
+    public synchronized SctpServerSocket accept()
+    {
+        long so;
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            logger.error("Listener can't accept: ", ioe);
+            return null;
+        }
+
+        try
+        {
+            so = SctpJni.usrsctp_accept_association(ptr, acceptedAddress);
+        }
+        finally
+        {
+            unlockPtr();
+        }
+        if (so == 0)
+        {
+            return null;
+        }
+
+        SctpSocket socket = Sctp4j.getSocket(acceptedAddress[0]);
+        if (!(socket instanceof SctpServerSocket)
+                || ((SctpServerSocket) socket).listener != this)
+        {
+            logger.warn("Accepted an association without a socket");
+            SctpJni.usrsctp_attach(0, so);
+            return null;
+        }
+
+        SctpServerSocket serverSocket = (SctpServerSocket) socket;
+        long serverPtr;
+        try
+        {
+            serverPtr = serverSocket.lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            // Closed meanwhile.
+            SctpJni.usrsctp_attach(0, so);
+            return null;
+        }
+
+        try
+        {
+            SctpJni.usrsctp_attach(serverPtr, so);
+        }
+        finally
+        {
+            serverSocket.unlockPtr();
+        }
+        serverSocket.onAccepted();
+        return serverSocket;
+    }
+
+    /**
+     * Accepts the next incoming association as soon as the stack has
+     * established it, rather than when {@link #accept()} is next polled.
+     *
+     * @param executor the executor to accept on, and to complete the
+     * returned future on.
+     * @return a future completed with the socket of the peer of the
+     * association, or exceptionally if this socket is closed first.
+     */
+    public CompletableFuture<SctpServerSocket> acceptAsync(Executor executor)
+    {
+        return acceptor.acceptAsync(executor);
+    }
+
+    /**
+     * Accepts the next incoming association as soon as the stack has
+     * established it, on the common pool.
+     *
+     * @see #acceptAsync(Executor)
+     */
+    public CompletableFuture<SctpServerSocket> acceptAsync()
+    {
+        return acceptAsync(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void onUpcall(int events)
+    {
+        if ((events & Sctp4j.SCTP_EVENT_READ) != 0)
+        {
+            acceptor.onReadable();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        acceptor.close();
+        super.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A listener socket has no association of its own.
+     */
+    @Override
+    protected boolean isReady()
+    {
+        return false;
+    }
+}
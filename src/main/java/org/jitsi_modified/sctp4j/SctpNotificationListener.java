@@ -0,0 +1,67 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * Receives the notifications of an {@link SctpSocket}, one method per
+ * notification type. The {@link SctpNotificationView} passed to the methods
+ * is reused and is only valid until the method returns.
+ */
+public interface SctpNotificationListener
+{
+    /**
+     * An <tt>SCTP_ASSOC_CHANGE</tt> notification.
+     */
+    default void onAssociationChange(SctpNotificationView notification)
+    {
+    }
+
+    /**
+     * An <tt>SCTP_PEER_ADDR_CHANGE</tt> notification.
+     */
+    default void onPeerAddressChange(SctpNotificationView notification)
+    {
+    }
+
+    /**
+     * An <tt>SCTP_SEND_FAILED_EVENT</tt> notification.
+     */
+    default void onSendFailed(SctpNotificationView notification)
+    {
+    }
+
+    /**
+     * An <tt>SCTP_SENDER_DRY_EVENT</tt> notification.
+     */
+    default void onSenderDry(SctpNotificationView notification)
+    {
+    }
+
+    /**
+     * An <tt>SCTP_STREAM_RESET_EVENT</tt> notification.
+     */
+    default void onStreamReset(SctpNotificationView notification)
+    {
+    }
+
+    /**
+     * A notification of any other type.
+     */
+    default void onNotification(SctpNotificationView notification)
+    {
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.nio.*;
+
+/**
+ * A flyweight over a notification delivered by the SCTP stack. The fields are
+ * read in place from the native receive buffer, so decoding a notification
+ * allocates nothing. The view is only valid for the duration of the
+ * {@link SctpNotificationListener} callback it is passed to and must not be
+ * retained.
+ *
+ * The structures are laid out by usrsctp in host byte order, see the
+ * definitions in {@link SctpNotification}.
+ */
+public final class SctpNotificationView
+{
+    /* struct sctp_assoc_change */
+    private static final int SAC_STATE = 8;
+    private static final int SAC_ERROR = 10;
+    private static final int SAC_OUTBOUND_STREAMS = 12;
+    private static final int SAC_INBOUND_STREAMS = 14;
+    private static final int SAC_ASSOC_ID = 16;
+
+    /*
+     * struct sctp_paddr_change, relative to its end as the size of
+     * spc_aaddr is platform dependent.
+     */
+    private static final int SPC_STATE_FROM_END = 16;
+    private static final int SPC_ERROR_FROM_END = 12;
+    private static final int SPC_ASSOC_ID_FROM_END = 8;
+
+    /* struct sctp_send_failed_event */
+    private static final int SSFE_ERROR = 8;
+    private static final int SSFE_SID = 12;
+    private static final int SSFE_FLAGS = 14;
+    private static final int SSFE_PPID = 16;
+    private static final int SSFE_CONTEXT = 20;
+    private static final int SSFE_ASSOC_ID = 28;
+    private static final int SSFE_DATA = 32;
+
+    /* struct sctp_sender_dry_event */
+    private static final int SENDER_DRY_ASSOC_ID = 8;
+
+    /* struct sctp_stream_reset_event */
+    private static final int STRRESET_ASSOC_ID = 8;
+    private static final int STRRESET_STREAM_LIST = 12;
+
+    private ByteBuffer buffer;
+
+    private int offset;
+
+    /**
+     * Points this view at a notification.
+     *
+     * @param buffer the buffer holding the notification, starting at its
+     * position. Its byte order is set to the native one.
+     * @return the buffer this view was pointing at before, so that a nested
+     * use of the view can be undone.
+     */
+    ByteBuffer wrap(ByteBuffer buffer)
+    {
+        ByteBuffer previous = this.buffer;
+
+        this.buffer = buffer;
+        if (buffer != null)
+        {
+            buffer.order(ByteOrder.nativeOrder());
+            offset = buffer.position();
+        }
+        return previous;
+    }
+
+    /**
+     * Calls the method of <tt>listener</tt> which matches the type of the
+     * notification.
+     */
+    void accept(SctpNotificationListener listener)
+    {
+        switch (type())
+        {
+            case SctpNotification.SCTP_ASSOC_CHANGE:
+                listener.onAssociationChange(this);
+                break;
+            case SctpNotification.SCTP_PEER_ADDR_CHANGE:
+                listener.onPeerAddressChange(this);
+                break;
+            case SctpNotification.SCTP_SEND_FAILED_EVENT:
+                listener.onSendFailed(this);
+                break;
+            case SctpNotification.SCTP_SENDER_DRY_EVENT:
+                listener.onSenderDry(this);
+                break;
+            case SctpNotification.SCTP_STREAM_RESET_EVENT:
+                listener.onStreamReset(this);
+                break;
+            default:
+                listener.onNotification(this);
+                break;
+        }
+    }
+
+    private int u16(int index)
+    {
+        return buffer.getShort(offset + index) & 0xFFFF;
+    }
+
+    private long u32(int index)
+    {
+        return buffer.getInt(offset + index) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the buffer the view reads from. The notification starts at its
+     * position.
+     */
+    public ByteBuffer buffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return <tt>sn_type</tt>, one of the notification types defined by
+     * {@link SctpNotification}.
+     */
+    public int type()
+    {
+        return u16(0);
+    }
+
+    /**
+     * @return <tt>sn_flags</tt>.
+     */
+    public int flags()
+    {
+        return u16(2);
+    }
+
+    /**
+     * @return <tt>sn_length</tt>, the length of the whole notification.
+     */
+    public int length()
+    {
+        return (int) u32(4);
+    }
+
+    /**
+     * @return the id of the association the notification is about, or -1 if
+     * the type of the notification is not known to carry one.
+     */
+    public long assocId()
+    {
+        switch (type())
+        {
+            case SctpNotification.SCTP_ASSOC_CHANGE:
+                return u32(SAC_ASSOC_ID);
+            case SctpNotification.SCTP_PEER_ADDR_CHANGE:
+                return u32(length() - SPC_ASSOC_ID_FROM_END);
+            case SctpNotification.SCTP_SEND_FAILED_EVENT:
+                return u32(SSFE_ASSOC_ID);
+            case SctpNotification.SCTP_SENDER_DRY_EVENT:
+                return u32(SENDER_DRY_ASSOC_ID);
+            case SctpNotification.SCTP_STREAM_RESET_EVENT:
+                return u32(STRRESET_ASSOC_ID);
+            default:
+                return -1;
+        }
+    }
+
+    /* SCTP_ASSOC_CHANGE */
+
+    /**
+     * @return <tt>sac_state</tt>, one of the states defined by
+     * {@link SctpNotification.AssociationChange}.
+     */
+    public int associationState()
+    {
+        return u16(SAC_STATE);
+    }
+
+    /**
+     * @return <tt>sac_error</tt>.
+     */
+    public int associationError()
+    {
+        return u16(SAC_ERROR);
+    }
+
+    /**
+     * @return <tt>sac_outbound_streams</tt>.
+     */
+    public int outboundStreams()
+    {
+        return u16(SAC_OUTBOUND_STREAMS);
+    }
+
+    /**
+     * @return <tt>sac_inbound_streams</tt>.
+     */
+    public int inboundStreams()
+    {
+        return u16(SAC_INBOUND_STREAMS);
+    }
+
+    /* SCTP_PEER_ADDR_CHANGE */
+
+    /**
+     * @return <tt>spc_state</tt>, one of the states defined by
+     * {@link SctpNotification.PeerAddressChange}.
+     */
+    public int peerAddressState()
+    {
+        return (int) u32(length() - SPC_STATE_FROM_END);
+    }
+
+    /**
+     * @return <tt>spc_error</tt>.
+     */
+    public long peerAddressError()
+    {
+        return u32(length() - SPC_ERROR_FROM_END);
+    }
+
+    /* SCTP_SEND_FAILED_EVENT */
+
+    /**
+     * @return <tt>ssfe_error</tt>.
+     */
+    public long sendFailedError()
+    {
+        return u32(SSFE_ERROR);
+    }
+
+    /**
+     * @return the stream id of the message which could not be sent.
+     */
+    public int sendFailedStreamId()
+    {
+        return u16(SSFE_SID);
+    }
+
+    /**
+     * @return the <tt>snd_flags</tt> of the message which could not be sent.
+     */
+    public int sendFailedSendFlags()
+    {
+        return u16(SSFE_FLAGS);
+    }
+
+    /**
+     * @return the payload protocol identifier of the message which could not
+     * be sent.
+     */
+    public long sendFailedPpid()
+    {
+        // The stack keeps the PPID in network byte order.
+        int ppid = buffer.getInt(offset + SSFE_PPID);
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN)
+        {
+            ppid = Integer.reverseBytes(ppid);
+        }
+        return ppid & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the <tt>snd_context</tt> of the message which could not be
+     * sent.
+     */
+    public long sendFailedContext()
+    {
+        return u32(SSFE_CONTEXT);
+    }
+
+    /**
+     * @return the index in {@link #buffer()} of the undelivered data carried
+     * by the notification.
+     */
+    public int sendFailedDataOffset()
+    {
+        return offset + SSFE_DATA;
+    }
+
+    /**
+     * @return the number of bytes of undelivered data carried by the
+     * notification.
+     */
+    public int sendFailedDataLength()
+    {
+        return Math.max(0, length() - SSFE_DATA);
+    }
+
+    /* SCTP_STREAM_RESET_EVENT */
+
+    /**
+     * @return the number of streams listed by the notification.
+     */
+    public int resetStreamCount()
+    {
+        return Math.max(0, (length() - STRRESET_STREAM_LIST) / 2);
+    }
+
+    /**
+     * @param index the index in the list, less than
+     * {@link #resetStreamCount()}.
+     * @return a stream which has been reset.
+     */
+    public int resetStream(int index)
+    {
+        return u16(STRRESET_STREAM_LIST + 2 * index);
+    }
+}
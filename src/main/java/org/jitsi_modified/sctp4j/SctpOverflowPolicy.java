@@ -0,0 +1,45 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * What happens to a received message when the callback queue of a socket
+ * (see {@link SctpSocket#setCallbackExecutor(java.util.concurrent.Executor,
+ * int, SctpOverflowPolicy)}) is full.
+ */
+public enum SctpOverflowPolicy
+{
+    /**
+     * The thread of the SCTP stack waits until there is room, so that a
+     * slow consumer holds back the stack as a synchronous callback would.
+     * The wait is bounded: the message is dropped after 100 ms, or at once
+     * if the waiting thread is the one which runs the callbacks, e.g. an
+     * event loop which both feeds the stack and is the executor, since the
+     * callbacks could not run before it stopped waiting.
+     */
+    BLOCK,
+
+    /**
+     * The oldest queued message is dropped to make room.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The received message is dropped.
+     */
+    DROP_NEWEST
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * A reusable list of messages for {@link SctpSocket#sendBatch(SctpSendBatch)},
+ * which hands all of them to the SCTP stack in a single native call. The
+ * parameters of the messages are kept in a flat <tt>int</tt> table so that
+ * neither adding a message nor sending the batch allocates.
+ *
+ * Instances are not thread safe.
+ */
+public final class SctpSendBatch
+{
+    /**
+     * The number of <tt>int</tt>s describing a message in {@link #params}.
+     */
+    static final int PARAMS_STRIDE = 5;
+
+    /* The offsets of the parameters of a message in its params row. */
+    static final int FLAGS = 0;
+
+    static final int SID = 1;
+
+    static final int PPID = 2;
+
+    static final int PR_POLICY = 3;
+
+    static final int PR_VALUE = 4;
+
+    ByteBuffer[] buffers;
+
+    int[] params;
+
+    int[] results;
+
+    int size;
+
+    /**
+     * Creates a batch with room for <tt>capacity</tt> messages. It grows as
+     * needed.
+     *
+     * @param capacity the initial capacity.
+     */
+    public SctpSendBatch(int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        buffers = new ByteBuffer[capacity];
+        params = new int[capacity * PARAMS_STRIDE];
+        results = new int[capacity];
+    }
+
+    /**
+     * Appends a message. The bytes between the position and the limit of
+     * <tt>data</tt> are sent; the buffer must not be modified before the
+     * batch has been sent.
+     *
+     * @param data a direct or array-backed buffer holding the message.
+     * @param sid SCTP stream identifier
+     * @param ppid payload protocol identifier
+     * @param options the ordering and reliability of the message.
+     * @return this batch.
+     * @throws IllegalArgumentException if <tt>data</tt> is a read-only heap
+     * buffer, whose bytes the native stack cannot reach.
+     */
+    public SctpSendBatch add(
+            ByteBuffer data, int sid, int ppid, SendOptions options)
+    {
+        SctpSocket.checkSendable(data);
+        if (size == buffers.length)
+        {
+            int capacity = size * 2;
+
+            buffers = Arrays.copyOf(buffers, capacity);
+            params = Arrays.copyOf(params, capacity * PARAMS_STRIDE);
+            results = Arrays.copyOf(results, capacity);
+        }
+
+        int row = size * PARAMS_STRIDE;
+
+        buffers[size] = data;
+        params[row + FLAGS] = options.flags;
+        params[row + SID] = sid;
+        params[row + PPID] = ppid;
+        params[row + PR_POLICY] = options.prPolicy;
+        params[row + PR_VALUE] = options.prValue;
+        results[size] = 0;
+        size++;
+        return this;
+    }
+
+    /**
+     * Appends an ordered, reliable message or an unordered, reliable one.
+     *
+     * @return this batch.
+     */
+    public SctpSendBatch add(
+            ByteBuffer data, boolean ordered, int sid, int ppid)
+    {
+        return add(
+                data,
+                sid,
+                ppid,
+                ordered ? SendOptions.RELIABLE : SendOptions.UNORDERED);
+    }
+
+    /**
+     * @return the number of messages in this batch.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the result of a message of the last send of this batch.
+     *
+     * @param index the index of the message.
+     * @return the number of bytes sent or one of the negative codes of
+     * {@link SctpSendResult}.
+     */
+    public int result(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return results[index];
+    }
+
+    /**
+     * Removes all messages, so that the batch can be reused.
+     */
+    public void clear()
+    {
+        Arrays.fill(buffers, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Sets the result of every message to <tt>result</tt>.
+     */
+    void fail(int result)
+    {
+        Arrays.fill(results, 0, size, result);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * The results of {@link SctpSocket#send(java.nio.ByteBuffer, int, int,
+ * SendOptions)}. A send returns the number of bytes the stack has accepted,
+ * or one of the negative codes below telling why it has accepted none. The
+ * codes are plain <tt>int</tt>s so that a rejected send, which is common
+ * under backpressure, costs neither an allocation nor a log line.
+ *
+ * The values are mirrored by the native library and must not change.
+ */
+public final class SctpSendResult
+{
+    /**
+     * The send failed for a reason not covered by the other codes. The
+     * native library has logged the cause.
+     */
+    public static final int ERROR = -1;
+
+    /**
+     * The socket has been closed, either locally or by the peer.
+     */
+    public static final int CLOSED = -2;
+
+    /**
+     * The association has not been established yet.
+     */
+    public static final int NOT_CONNECTED = -3;
+
+    /**
+     * The send buffer has no room for the message. The send may be retried
+     * once {@link SctpSocket.SctpSocketEventHandler#onBufferedAmountLow()}
+     * fires.
+     */
+    public static final int WOULD_BLOCK = -4;
+
+    /**
+     * The message is larger than the send buffer and can never be accepted.
+     */
+    public static final int MESSAGE_TOO_LARGE = -5;
+
+    private SctpSendResult()
+    {
+    }
+
+    /**
+     * @param result the result of a send.
+     * @return whether the stack has accepted the message.
+     */
+    public static boolean isAccepted(int result)
+    {
+        return result >= 0;
+    }
+
+    /**
+     * @param result the result of a send.
+     * @return a description of <tt>result</tt> for logging.
+     */
+    public static String toString(int result)
+    {
+        switch (result)
+        {
+            case ERROR:
+                return "ERROR";
+            case CLOSED:
+                return "CLOSED";
+            case NOT_CONNECTED:
+                return "NOT_CONNECTED";
+            case WOULD_BLOCK:
+                return "WOULD_BLOCK";
+            case MESSAGE_TOO_LARGE:
+                return "MESSAGE_TOO_LARGE";
+            default:
+                return result >= 0
+                    ? "ACCEPTED(" + result + ")"
+                    : "UNKNOWN(" + result + ")";
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.jitsi_modified.sctp4j;
 import org.jitsi.utils.logging2.*;
 
 import java.io.*;
+import java.util.concurrent.*;
 
 /**
  * An SctpServerSocket can be used to listen for an incoming connection and then
@@ -28,11 +29,31 @@ import java.io.*;
  */
 public class SctpServerSocket extends SctpSocket
 {
-    private boolean accepted = false;
+    private volatile boolean accepted = false;
+
+    /**
+     * The listener socket which accepts the association of this socket, or
+     * <tt>null</tt> if this socket listens and accepts by itself.
+     */
+    final SctpListenerSocket listener;
+
+    /**
+     * Completes {@link #acceptAsync(Executor)}.
+     */
+    private final SctpAcceptor<SctpServerSocket> acceptor
+        = new SctpAcceptor<>(this, () -> accepted || accept() ? this : null);
 
     public SctpServerSocket(long ptr, long id, Logger parentLogger)
+    {
+        this(ptr, id, null, parentLogger);
+    }
+
+    SctpServerSocket(
+            long ptr, long id, SctpListenerSocket listener,
+            Logger parentLogger)
     {
         super(ptr, id, parentLogger);
+        this.listener = listener;
     }
 
     /**
@@ -42,6 +63,11 @@ public class SctpServerSocket extends SctpSocket
      */
     public void listen()
     {
+        if (listener != null)
+        {
+            logger.error("Socket of a listener can't listen");
+            return;
+        }
         try
         {
             lockPtr();
@@ -75,7 +101,8 @@ public class SctpServerSocket extends SctpSocket
      * Accepts incoming SCTP connection.
      *
      * Usrsctp is currently configured to work in non blocking mode thus this
-     * method should be polled in intervals.
+     * method should be polled in intervals, unless
+     * {@link #acceptAsync(Executor)} is used instead.
      *
      * NOTE: Normally the socket used to accept would be re-used to accept
      * multiple incoming connections, and each successful accept would return a
@@ -86,12 +113,20 @@ public class SctpServerSocket extends SctpSocket
      * this instance should be used for sending/receiving data on that new
      * connection.
      *
+     * The socket of a peer of an {@link SctpListenerSocket} doesn't accept
+     * by itself; it is returned by {@link SctpListenerSocket#accept()}
+     * instead.
+     *
      * @return <code>true</code> if we have accepted incoming connection
      *         successfully.
      */
     public boolean accept()
     {
         boolean ret = false;
+        if (listener != null)
+        {
+            return accepted;
+        }
         try
         {
             lockPtr();
@@ -114,7 +149,7 @@ public class SctpServerSocket extends SctpSocket
                 // of the accept call, should we post it elsewhere?
                 if (isReady())
                 {
-                    eventHandler.onReady();
+                    fireEvent(SctpCallbackDispatcher.READY);
                 }
                 ret = true;
             }
@@ -126,4 +161,68 @@ public class SctpServerSocket extends SctpSocket
 
         return ret;
     }
+
+    /**
+     * Accepts the incoming connection as soon as the stack has established
+     * it, rather than when {@link #accept()} is next polled.
+     *
+     * @param executor the executor to accept on, and to complete the
+     * returned future on.
+     * @return a future completed with this socket once it has accepted the
+     * connection, or exceptionally if it is closed first. For the socket of
+     * a peer of an {@link SctpListenerSocket}, completed once the listener
+     * has accepted the association of the peer.
+     */
+    public CompletableFuture<SctpServerSocket> acceptAsync(Executor executor)
+    {
+        return acceptor.acceptAsync(executor);
+    }
+
+    /**
+     * Accepts the incoming connection as soon as the stack has established
+     * it, on the common pool.
+     *
+     * @see #acceptAsync(Executor)
+     */
+    public CompletableFuture<SctpServerSocket> acceptAsync()
+    {
+        return acceptAsync(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void onUpcall(int events)
+    {
+        if ((events & Sctp4j.SCTP_EVENT_READ) != 0 && !accepted)
+        {
+            acceptor.onReadable();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        acceptor.close();
+        super.close();
+    }
+
+    /**
+     * Called by {@link #listener} once it has attached the association of
+     * this socket.
+     */
+    void onAccepted()
+    {
+        accepted = true;
+        // The notification of the association coming up may have been
+        // delivered to the listener, before the association had a socket of
+        // its own. An association is only accepted once it is up.
+        markConnected();
+        fireEvent(SctpCallbackDispatcher.READY);
+        acceptor.onReadable();
+    }
 }
@@ -21,6 +21,8 @@ import org.jitsi.utils.logging2.*;
 
 import java.io.*;
 import java.nio.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * @author Pawel Domas
@@ -38,12 +40,34 @@ public abstract class SctpSocket
          */
         void onReady();
         void onDisconnected();
+
+        /**
+         * Called when the amount of data buffered for sending has dropped to
+         * or below the threshold set with
+         * {@link #setBufferedAmountLowThreshold(int)}, after a send had
+         * left it above the threshold or had been rejected because the
+         * buffer was full. Producers which stopped sending because of
+         * backpressure can resume.
+         *
+         * Unless the socket has been created with
+         * {@link SctpSocketOptions.Builder#bufferedAmountLowThreshold(int)},
+         * the stack only reports the send buffer once it has been drained.
+         */
+        default void onBufferedAmountLow()
+        {
+        }
     }
 
     /**
      * ID for the socket address map
      */
-    private long id;
+    final long id;
+
+    /**
+     * The hot path metrics of this socket, <tt>null</tt> unless
+     * {@link SctpSocketMetrics#ENABLED}.
+     */
+    private final SctpSocketMetrics metrics = SctpSocketMetrics.create();
 
     /**
      * Pointer to the native socket counterpart
@@ -55,6 +79,26 @@ public abstract class SctpSocket
      */
     public SctpDataSender outgoingDataSender;
 
+    /**
+     * Used to send network packets without allocating an array for each of
+     * them. Takes precedence over {@link #outgoingDataSender} when set.
+     */
+    public SctpBufferDataSender outgoingBufferSender;
+
+    /**
+     * If set, network packets handed to {@link #outgoingBufferSender} are
+     * copied into buffers leased from this allocator, rather than being
+     * passed as views of native memory which are only valid during the
+     * callback.
+     */
+    public SctpBufferAllocator outgoingBufferAllocator;
+
+    /**
+     * Used to send all the network packets emitted during one call into the
+     * stack at once. Takes precedence over the per-packet senders when set.
+     */
+    private volatile SctpBatchDataSender outgoingBatchSender;
+
     /**
      * Handler to be notified of socket events (connected, disconnected)
      */
@@ -69,18 +113,83 @@ public abstract class SctpSocket
     public SctpDataCallback dataCallback;
 
     /**
-     * The number of current readers of {@link #ptr} which are preventing the
-     * writer (i.e. {@link #close()}) from invoking
-     * {@link Sctp4j#closeSocket(long, long)}.
+     * Callback used to notify about received data without allocating an
+     * array for each message. Takes precedence over {@link #dataCallback}
+     * when set.
+     */
+    public SctpBufferDataCallback bufferDataCallback;
+
+    /**
+     * Listener to be notified of all notifications of the SCTP stack,
+     * including those handled by the socket itself.
+     */
+    public SctpNotificationListener notificationListener;
+
+    /**
+     * Queues the data and event callbacks of this socket for delivery on an
+     * executor, <tt>null</tt> to invoke them on the thread of the stack.
+     */
+    private volatile SctpCallbackDispatcher callbackDispatcher;
+
+    /**
+     * The threshold of the buffered amount at or below which
+     * {@link SctpSocketEventHandler#onBufferedAmountLow()} fires.
+     */
+    private volatile int bufferedAmountLowThreshold = 0;
+
+    /**
+     * Whether {@link SctpSocketEventHandler#onBufferedAmountLow()} is due
+     * once the buffered amount drops to or below the threshold.
+     */
+    private final AtomicBoolean bufferedAmountLowArmed = new AtomicBoolean();
+
+    /**
+     * The buffered amount as of the last time the stack reported the free
+     * space of the send buffer, plus the bytes sent since. Used to decide
+     * cheaply whether a send has left the buffered amount above the
+     * threshold, without asking the stack.
+     */
+    private final AtomicLong estimatedBufferedAmount = new AtomicLong();
+
+    /**
+     * The size of the send buffer, read from the stack on first use.
      */
-    private int ptrLockCount = 0;
+    private volatile int sendBufferSize = -1;
 
     /**
-     * The indicator which determines whether {@link #close()} has been invoked
-     * on this <code>SctpSocket</code>. It does NOT indicate whether
+     * The views notifications are decoded with, one per thread as the stack
+     * may deliver notifications for a socket on several threads.
+     */
+    private static final ThreadLocal<SctpNotificationView> notificationView
+        = ThreadLocal.withInitial(SctpNotificationView::new);
+
+    /**
+     * Set in {@link #state} once {@link #close()} has been invoked on this
+     * <code>SctpSocket</code>. It does NOT indicate whether
      * {@link Sctp4j#closeSocket(long, long)} has been invoked with {@link #ptr}.
      */
-    private boolean closed = false;
+    private static final long CLOSED = 1L << 62;
+
+    /**
+     * Set in {@link #state} once {@link #ptr} has been handed to
+     * {@link Sctp4j#closeSocket(long, long)}.
+     */
+    private static final long DISPOSED = 1L << 61;
+
+    /**
+     * The bits of {@link #state} which count the current readers of
+     * {@link #ptr}.
+     */
+    private static final long READERS = DISPOSED - 1;
+
+    /**
+     * The lifetime of {@link #ptr}: the number of current readers which are
+     * preventing the writer (i.e. {@link #close()}) from invoking
+     * {@link Sctp4j#closeSocket(long, long)}, combined with the
+     * {@link #CLOSED} and {@link #DISPOSED} flags. Kept in a single word so
+     * that readers never have to take a lock.
+     */
+    private final AtomicLong state = new AtomicLong();
 
     /**
      * The logger to use for log messages.  Public so it can be used by static JNI code.
@@ -106,25 +215,15 @@ public abstract class SctpSocket
     protected long lockPtr()
         throws IOException
     {
-        long ptr;
+        // Optimistically register as a reader. A reader which loses the race
+        // with close() backs out through unlockPtr(), which closes ptr if it
+        // was the last one.
+        long state = this.state.getAndIncrement();
 
-        synchronized (this)
+        if ((state & CLOSED) != 0)
         {
-            // It may seem that the synchronization with respect to the field
-            // closed is inconsistent because there is no synchronization upon
-            // writing its value. It is consistent though.
-            if (closed)
-            {
-                throw new IOException("SctpSocket is closed!");
-            }
-            else
-            {
-                ptr = this.ptr;
-                if (ptr == 0)
-                    throw new IOException("SctpSocket is closed!");
-                else
-                    ++ptrLockCount;
-            }
+            unlockPtr();
+            throw new IOException("SctpSocket is closed!");
         }
         return ptr;
     }
@@ -138,41 +237,41 @@ public abstract class SctpSocket
      */
     protected void unlockPtr()
     {
-        long ptr;
+        long state;
 
-        synchronized (this)
+        // An unbalanced invocation must not borrow from the flag bits, or a
+        // concurrent lockPtr() could miss CLOSED.
+        do
         {
-            int ptrLockCount = this.ptrLockCount - 1;
-
-            if (ptrLockCount < 0)
+            state = this.state.get();
+            if ((state & READERS) == 0)
             {
                 throw new RuntimeException(
                         "Unbalanced SctpSocket#unlockPtr() method invocation!");
             }
-            else
-            {
-                this.ptrLockCount = ptrLockCount;
-                if (closed && (ptrLockCount == 0))
-                {
-                    // The actual closing of ptr was deferred until now.
-                    ptr = this.ptr;
-                    this.ptr = 0;
-                }
-                else
-                {
-                    // The actual closing of ptr may not have been requested or
-                    // will be deferred.
-                    ptr = 0;
-                }
-            }
         }
-        if (ptr != 0)
+        while (!this.state.compareAndSet(state, state - 1));
+
+        if (state == (CLOSED | 1))
         {
-            Sctp4j.closeSocket(ptr, id);
+            // The actual closing of ptr was deferred until now.
+            disposePtr();
         }
     }
 
-
+    /**
+     * Closes {@link #ptr} if this <code>SctpSocket</code> has been closed,
+     * there are no readers and nobody else has closed it yet.
+     */
+    private void disposePtr()
+    {
+        if (state.compareAndSet(CLOSED, CLOSED | DISPOSED))
+        {
+            long ptr = this.ptr;
+            this.ptr = 0;
+            Sctp4j.closeSocket(ptr, id);
+        }
+    }
 
     /**
      * Whether or not this connection is ready for use.  The logic to determine
@@ -186,20 +285,37 @@ public abstract class SctpSocket
         return ptr != 0 && connected;
     }
 
+    /**
+     * Called by the upcall of the stack, if set, when the state of this
+     * socket has changed.
+     *
+     * @param events the SCTP_EVENT_* flags of the socket.
+     */
+    void onUpcall(int events)
+    {
+    }
+
+    /**
+     * Marks the association of this socket as up, for an association which
+     * came up before this socket was attached to it.
+     */
+    void markConnected()
+    {
+        connected = true;
+    }
+
     /**
      * Fired when usrsctp stack sends notification.
      *
-     * @param notification the <code>SctpNotification</code> triggered.
+     * @param notification the notification, read in place.
      */
-    private void onNotification(SctpNotification notification)
+    private void onNotification(SctpNotificationView notification)
     {
-        if (notification instanceof SctpNotification.AssociationChange)
+        if (notification.type() == SctpNotification.SCTP_ASSOC_CHANGE)
         {
-            SctpNotification.AssociationChange associationChange
-                    = (SctpNotification.AssociationChange)notification;
-            logger.info(
-                "Got sctp association state update: " + associationChange.state);
-            switch (associationChange.state)
+            int state = notification.associationState();
+            logger.info("Got sctp association state update: " + state);
+            switch (state)
             {
                 case SctpNotification.AssociationChange.SCTP_COMM_UP:
                 {
@@ -208,11 +324,8 @@ public abstract class SctpSocket
                     connected = true;
                     if (isReady() && !wasReady)
                     {
-                        if (eventHandler != null)
-                        {
-                            logger.info("sctp invoking onready");
-                            eventHandler.onReady();
-                        }
+                        logger.info("sctp invoking onready");
+                        fireEvent(SctpCallbackDispatcher.READY);
                     }
                     break;
                 }
@@ -221,14 +334,25 @@ public abstract class SctpSocket
                 case SctpNotification.AssociationChange.SCTP_CANT_STR_ASSOC:
                 {
                     connected = false;
-                    if (eventHandler != null)
-                    {
-                        eventHandler.onDisconnected();
-                    }
+                    fireEvent(SctpCallbackDispatcher.DISCONNECTED);
                     break;
                 }
             }
         }
+
+        else if (notification.type()
+                == SctpNotification.SCTP_SENDER_DRY_EVENT)
+        {
+            // All data has been acknowledged.
+            onBufferedAmount(0);
+        }
+
+        SctpNotificationListener notificationListener
+            = this.notificationListener;
+        if (notificationListener != null)
+        {
+            notification.accept(notificationListener);
+        }
     }
 
     /**
@@ -237,35 +361,14 @@ public abstract class SctpSocket
      */
     public void close()
     {
-        // The value of the field closed only ever changes from false to true.
-        // Additionally, its reading is always synchronized and combined with
-        // access to the field ptrLockCount governed by logic which binds the
-        // meanings of the two values together. Consequently, the
-        // synchronization with respect to closed is considered consistent.
-        // Allowing the writing outside the synchronized block expedites the
-        // actual closing of ptr.
-        closed = true;
         connected = false;
 
-        long ptr;
-
-        synchronized (this)
-        {
-            if (ptrLockCount == 0)
-            {
-                // The actual closing of ptr will not be deferred.
-                ptr = this.ptr;
-                this.ptr = 0;
-            }
-            else
-            {
-                // The actual closing of ptr will be deferred.
-                ptr = 0;
-            }
-        }
-        if (ptr != 0)
+        // Readers which are still holding ptr defer its actual closing until
+        // the last one of them unlocks it.
+        long state = this.state.getAndUpdate(s -> s | CLOSED);
+        if ((state & CLOSED) == 0)
         {
-            Sctp4j.closeSocket(ptr, id);
+            disposePtr();
         }
     }
 
@@ -292,10 +395,15 @@ public abstract class SctpSocket
         }
         catch (IOException ioe)
         {
+            if (SctpSocketMetrics.ENABLED)
+            {
+                metrics.drops.increment();
+            }
             logger.error("Socket isn't open, ignoring incoming data");
             return;
         }
 
+        long start = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
         try
         {
             SctpJni.on_network_in(ptr, packet, offset, len);
@@ -304,105 +412,992 @@ public abstract class SctpSocket
         {
             unlockPtr();
         }
+        if (SctpSocketMetrics.ENABLED)
+        {
+            metrics.onConnIn(1, len, start);
+        }
     }
 
     /**
-     * Method fired by SCTP stack to notify about incoming data.
+     * Call this method to pass network packets received on the link to the
+     * SCTP stack. The bytes between the buffer's position and its limit make
+     * up the packet; the position of the buffer is left unchanged. Direct
+     * buffers are handed to the native stack without an intermediate copy.
      *
-     * @param data buffer holding received data
-     * @param sid stream id
-     * @param ssn
-     * @param tsn
-     * @param ppid payload protocol identifier
-     * @param context
-     * @param flags
+     * @param packet network packet received.
      */
-    void onSctpIn(
-            byte[] data, int sid, int ssn, int tsn, long ppid, int context,
-            int flags)
+    public void onConnIn(ByteBuffer packet)
     {
-        if ((flags & Sctp4j.MSG_NOTIFICATION) != 0)
+        if (!packet.isDirect())
         {
-            onNotification(SctpNotification.parse(data));
+            onConnIn(
+                    packet.array(),
+                    packet.arrayOffset() + packet.position(),
+                    packet.remaining());
+            return;
         }
-        else
+
+        int len = packet.remaining();
+        if (len <= 0)
+        {
+            throw new IllegalArgumentException("l: " + len);
+        }
+
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
         {
-            if (dataCallback != null)
+            if (SctpSocketMetrics.ENABLED)
             {
-                dataCallback.onSctpPacket(
-                        data, sid, ssn, tsn, ppid, context, flags);
+                metrics.drops.increment();
             }
+            logger.error("Socket isn't open, ignoring incoming data");
+            return;
+        }
+
+        long start = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
+        try
+        {
+            SctpJni.on_network_in_direct(ptr, packet, packet.position(), len);
+        }
+        finally
+        {
+            unlockPtr();
+        }
+        if (SctpSocketMetrics.ENABLED)
+        {
+            metrics.onConnIn(1, len, start);
         }
     }
 
     /**
-     * Callback triggered by SCTP stack whenever it wants to send some network
-     * packet.
+     * Call this method to pass a burst of network packets received on the
+     * link to the SCTP stack at once. All packets are handed to the native
+     * stack in one call, while holding the socket for the whole batch.
      *
-     * @param packet network packet buffer.
-     * @param tos type of service???
-     * @param set_df use IP don't fragment option
-     * @return 0 if the packet was successfully sent or -1 otherwise.
+     * @param packets direct buffers holding the network packets, the bytes
+     * between the position and the limit of each making up one packet.
+     * @param offset the index of the first packet in <code>packets</code>.
+     * @param count the number of packets to pass.
      */
-    public int onSctpOut(byte[] packet, int tos, int set_df)
+    public void onConnIn(ByteBuffer[] packets, int offset, int count)
     {
-        int ret = -1;
+        if (offset < 0 || count < 0 || offset + count > packets.length)
+        {
+            throw new IllegalArgumentException(
+                    "o: " + offset + " c: " + count
+                        + " packets l: " + packets.length);
+        }
+        for (int i = offset; i < offset + count; i++)
+        {
+            if (!packets[i].isDirect())
+            {
+                throw new IllegalArgumentException(
+                        "Packet " + i + " is not a direct buffer");
+            }
+        }
+        if (count == 0)
+        {
+            return;
+        }
+
         try
         {
             lockPtr();
         }
         catch (IOException ioe)
         {
-            return ret;
+            if (SctpSocketMetrics.ENABLED)
+            {
+                metrics.drops.add(count);
+            }
+            logger.error("Socket isn't open, ignoring incoming data");
+            return;
         }
 
+        long start = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
         try
         {
-            if (outgoingDataSender != null)
-            {
-                ret = outgoingDataSender.send(packet, 0, packet.length);
-            }
+            SctpJni.on_network_in_batch(ptr, packets, offset, count);
         }
         finally
         {
             unlockPtr();
         }
-
-        return ret;
+        if (SctpSocketMetrics.ENABLED)
+        {
+            metrics.onConnIn(count, remaining(packets, offset, count), start);
+        }
     }
 
     /**
-     * Send SCTP app data through the stack and out
-     * @return the number of bytes sent or -1 on error
+     * @return the sum of the remaining bytes of the given buffers.
      */
-    public int send(
-            ByteBuffer data, boolean ordered, int sid, int ppid)
+    static long remaining(ByteBuffer[] buffers, int offset, int count)
     {
-        int ret = -1;
-
-        try
+        long remaining = 0;
+        for (int i = offset; i < offset + count; i++)
         {
-            lockPtr();
+            remaining += buffers[i].remaining();
         }
-        catch (IOException ioe)
+        return remaining;
+    }
+
+    /**
+     * Accounts for incoming packets handed to the stack by
+     * {@link Sctp4j#onConnIn(SctpSocket[], ByteBuffer[], int, int)}, or
+     * dropped because this socket was closed.
+     */
+    void onConnIn(int packets, long bytes, boolean dropped)
+    {
+        if (SctpSocketMetrics.ENABLED)
         {
-            return ret;
+            if (dropped)
+            {
+                metrics.drops.add(packets);
+            }
+            else
+            {
+                metrics.packetsIn.add(packets);
+                metrics.packetBytesIn.add(bytes);
+            }
         }
+    }
 
-        try
+    /**
+     * Method fired by SCTP stack to notify about incoming data.
+     *
+     * @param data view of the native buffer holding received data, only valid
+     * for the duration of the call
+     * @param sid stream id
+     * @param ssn
+     * @param tsn
+     * @param ppid payload protocol identifier
+     * @param context
+     * @param flags
+     */
+    void onSctpIn(
+            ByteBuffer data, int sid, int ssn, int tsn, long ppid, int context,
+            int flags)
+    {
+        if ((flags & Sctp4j.MSG_NOTIFICATION) != 0)
         {
-            if (socketConnected())
+            // A listener may call back into the stack and so be handed a
+            // nested notification on the same thread and view.
+            SctpNotificationView notification = notificationView.get();
+            ByteBuffer previous = notification.wrap(data);
+            try
             {
-                ret = SctpJni.usrsctp_send(
-                        ptr,
-                        data.array(), data.arrayOffset(), data.limit(),
-                        ordered, sid, ppid);
+                onNotification(notification);
+            }
+            finally
+            {
+                notification.wrap(previous);
             }
         }
-        finally
+        else
         {
-            unlockPtr();
+            long start = 0;
+            if (SctpSocketMetrics.ENABLED)
+            {
+                metrics.messagesReceived.increment();
+                metrics.bytesReceived.add(data.remaining());
+                start = System.nanoTime();
+            }
+
+            SctpCallbackDispatcher callbackDispatcher
+                = this.callbackDispatcher;
+            if (callbackDispatcher == null)
+            {
+                deliverData(data, sid, ssn, tsn, ppid, context, flags);
+            }
+            else if (!callbackDispatcher.dispatchData(
+                        data, sid, ssn, tsn, ppid, context, flags)
+                    && SctpSocketMetrics.ENABLED)
+            {
+                metrics.drops.increment();
+            }
+
+            if (SctpSocketMetrics.ENABLED)
+            {
+                metrics.receiveCallbackDuration.recordSince(start);
+            }
+        }
+    }
+
+    /**
+     * Hands a received message to the data callbacks.
+     */
+    void deliverData(
+            ByteBuffer data, int sid, int ssn, int tsn, long ppid, int context,
+            int flags)
+    {
+        SctpBufferDataCallback bufferDataCallback = this.bufferDataCallback;
+        if (bufferDataCallback != null)
+        {
+            bufferDataCallback.onSctpPacket(
+                    data, sid, ssn, tsn, ppid, context, flags);
+        }
+        else if (dataCallback != null)
+        {
+            dataCallback.onSctpPacket(
+                    toArray(data), sid, ssn, tsn, ppid, context, flags);
+        }
+        else if (SctpSocketMetrics.ENABLED)
+        {
+            metrics.drops.increment();
+        }
+    }
+
+    /**
+     * Fires an event of {@link #eventHandler}, on the callback executor if
+     * one is set.
+     *
+     * @param kind the {@link SctpCallbackDispatcher} kind of the event.
+     */
+    void fireEvent(int kind)
+    {
+        SctpCallbackDispatcher callbackDispatcher = this.callbackDispatcher;
+        if (callbackDispatcher == null)
+        {
+            deliverEvent(kind);
+        }
+        else
+        {
+            callbackDispatcher.dispatchEvent(kind);
+        }
+    }
+
+    /**
+     * Invokes {@link #eventHandler} for an event.
+     *
+     * @param kind the {@link SctpCallbackDispatcher} kind of the event.
+     */
+    void deliverEvent(int kind)
+    {
+        SctpSocketEventHandler eventHandler = this.eventHandler;
+        if (eventHandler == null)
+        {
+            return;
+        }
+        switch (kind)
+        {
+            case SctpCallbackDispatcher.READY:
+                eventHandler.onReady();
+                break;
+            case SctpCallbackDispatcher.DISCONNECTED:
+                eventHandler.onDisconnected();
+                break;
+            case SctpCallbackDispatcher.BUFFERED_AMOUNT_LOW:
+                eventHandler.onBufferedAmountLow();
+                break;
+        }
+    }
+
+    /**
+     * Delivers the data callbacks and the events of {@link #eventHandler} on
+     * <tt>executor</tt> rather than on the thread of the stack which
+     * processed the packet or timer, so that a slow consumer does not hold
+     * back the stack (and every other socket it serves).
+     *
+     * Callbacks are queued per socket and delivered one at a time in the
+     * order they were raised, whatever the number of threads of the
+     * executor. Received messages are copied into reused buffers which are
+     * only valid until the callback returns, as with the views handed to
+     * {@link #bufferDataCallback} otherwise. When <tt>capacity</tt> messages
+     * are queued, further messages are handled according to
+     * <tt>policy</tt>; events are never dropped, but one which is still
+     * queued is not queued again.
+     * {@link #notificationListener} is still invoked synchronously, since it
+     * is handed a view of native memory.
+     *
+     * With {@link SctpOverflowPolicy#BLOCK}, the thread feeding the stack
+     * waits for <tt>executor</tt> when the queue is full. If that thread
+     * also runs the tasks of <tt>executor</tt>, as an event loop driving
+     * the stack through {@link Sctp4j#pollTimers()} may, the message is
+     * dropped instead, since the callbacks could not run meanwhile.
+     *
+     * Should be set before the socket is connected.
+     *
+     * @param executor the executor to deliver the callbacks on, or
+     * <tt>null</tt> to deliver them synchronously (the default).
+     * @param capacity the maximum number of queued messages.
+     * @param policy what to do with a message received when the queue is
+     * full.
+     */
+    public void setCallbackExecutor(
+            Executor executor, int capacity, SctpOverflowPolicy policy)
+    {
+        if (executor == null)
+        {
+            callbackDispatcher = null;
+            return;
+        }
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        if (policy == null)
+        {
+            throw new NullPointerException("policy");
+        }
+        callbackDispatcher
+            = new SctpCallbackDispatcher(this, executor, capacity, policy);
+    }
+
+    /**
+     * @return the number of received messages dropped because the queue of
+     * the callback executor was full.
+     */
+    public long getCallbackDrops()
+    {
+        SctpCallbackDispatcher callbackDispatcher = this.callbackDispatcher;
+        return callbackDispatcher == null ? 0 : callbackDispatcher.getDropped();
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into a new array.
+     */
+    private static byte[] toArray(ByteBuffer data)
+    {
+        byte[] array = new byte[data.remaining()];
+        data.get(array);
+        return array;
+    }
+
+    /**
+     * Callback triggered by SCTP stack whenever it wants to send some network
+     * packet.
+     *
+     * @param packet network packet buffer.
+     * @param tos type of service???
+     * @param set_df use IP don't fragment option
+     * @return 0 if the packet was successfully sent or -1 otherwise.
+     */
+    public int onSctpOut(byte[] packet, int tos, int set_df)
+    {
+        int ret = -1;
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return ret;
+        }
+
+        long start = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
+        try
+        {
+            if (outgoingDataSender != null)
+            {
+                ret = outgoingDataSender.send(packet, 0, packet.length);
+            }
+        }
+        finally
+        {
+            unlockPtr();
+        }
+        if (SctpSocketMetrics.ENABLED)
+        {
+            onSentOut(1, packet.length, ret, start);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Callback triggered by SCTP stack whenever it wants to send some network
+     * packet. Hands the packet to {@link #outgoingBufferSender} if set, and
+     * falls back to copying it into an array for {@link #outgoingDataSender}
+     * otherwise.
+     *
+     * @param packet view of the native memory holding the network packet,
+     * only valid for the duration of the call.
+     * @param tos type of service???
+     * @param set_df use IP don't fragment option
+     * @return 0 if the packet was successfully sent or -1 otherwise.
+     */
+    int onSctpOut(ByteBuffer packet, int tos, int set_df)
+    {
+        int ret = -1;
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return ret;
+        }
+
+        int len = packet.remaining();
+        long start = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
+        try
+        {
+            ret = sendOut(packet);
+        }
+        finally
+        {
+            unlockPtr();
+        }
+        if (SctpSocketMetrics.ENABLED)
+        {
+            onSentOut(1, len, ret, start);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Callback triggered by SCTP stack at the end of a batched call into it
+     * with the network packets it has emitted during the call. Hands them to
+     * {@link #outgoingBatchSender} if set, and to the per-packet senders one
+     * by one otherwise.
+     *
+     * @param packets views of the native memory holding the network packets,
+     * only valid for the duration of the call.
+     * @param count the number of packets.
+     * @return 0 if the packets were successfully sent or -1 otherwise.
+     */
+    int onSctpOut(ByteBuffer[] packets, int count)
+    {
+        int ret = -1;
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return ret;
+        }
+
+        long len
+            = SctpSocketMetrics.ENABLED ? remaining(packets, 0, count) : 0;
+        long start = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
+        try
+        {
+            SctpBatchDataSender batchSender = outgoingBatchSender;
+            if (batchSender != null)
+            {
+                // The memory belongs to the stack.
+                for (int i = 0; i < count; i++)
+                {
+                    packets[i] = packets[i].asReadOnlyBuffer();
+                }
+                ret = batchSender.send(packets, count);
+            }
+            else
+            {
+                ret = 0;
+                for (int i = 0; i < count; i++)
+                {
+                    if (sendOut(packets[i]) != 0)
+                    {
+                        ret = -1;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            unlockPtr();
+        }
+        if (SctpSocketMetrics.ENABLED)
+        {
+            onSentOut(count, len, ret, start);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Accounts for network packets handed to the sender.
+     */
+    private void onSentOut(int packets, long bytes, int ret, long startNanos)
+    {
+        metrics.sendCallbackDuration.recordSince(startNanos);
+        metrics.packetsOut.add(packets);
+        metrics.packetBytesOut.add(bytes);
+        if (ret != 0)
+        {
+            metrics.drops.increment();
+        }
+    }
+
+    private int sendOut(ByteBuffer packet)
+    {
+        int ret = -1;
+        SctpBufferDataSender bufferSender = outgoingBufferSender;
+        if (bufferSender != null)
+        {
+            SctpBufferAllocator allocator = outgoingBufferAllocator;
+            if (allocator == null)
+            {
+                // The memory belongs to the stack.
+                ret = bufferSender.send(packet.asReadOnlyBuffer());
+            }
+            else
+            {
+                ByteBuffer leased = allocator.allocate(packet.remaining());
+                leased.put(packet).flip();
+                ret = bufferSender.send(leased);
+            }
+        }
+        else if (outgoingDataSender != null)
+        {
+            byte[] data = new byte[packet.remaining()];
+            packet.get(data);
+            ret = outgoingDataSender.send(data, 0, data.length);
+        }
+        return ret;
+    }
+
+    /**
+     * Sets the sender of the network packets emitted by the stack in batches.
+     * While set, the packets emitted during a call into the stack made on
+     * behalf of this socket (handling incoming packets, sending, connecting)
+     * are queued natively and handed to the sender together at the end of
+     * the call. Packets emitted by the stack's own timer thread (e.g.
+     * retransmissions) are still delivered one by one.
+     *
+     * @param sender the batch sender, or <tt>null</tt> to go back to
+     * delivering packets one by one.
+     */
+    public void setOutgoingBatchSender(SctpBatchDataSender sender)
+    {
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return;
+        }
+
+        try
+        {
+            outgoingBatchSender = sender;
+            SctpJni.usrsctp_set_egress_batching(ptr, sender != null);
+        }
+        finally
+        {
+            unlockPtr();
+        }
+    }
+
+    /**
+     * Returns the number of bytes queued for sending which the peer has not
+     * acknowledged yet.
+     *
+     * @return the buffered amount, or -1 if the socket is closed or the stack
+     * failed to report it.
+     */
+    public int bufferedAmount()
+    {
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return -1;
+        }
+
+        try
+        {
+            return SctpJni.usrsctp_get_buffered_amount(ptr);
+        }
+        finally
+        {
+            unlockPtr();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the hot path counters and histograms of this
+     * socket.
+     *
+     * @return the snapshot, or <tt>null</tt> if metrics are not
+     * {@link SctpSocketMetrics#ENABLED enabled}.
+     */
+    public SctpSocketMetrics.Snapshot metrics()
+    {
+        return SctpSocketMetrics.ENABLED ? metrics.snapshot() : null;
+    }
+
+    /**
+     * Returns a snapshot of the state of the association of this socket:
+     * congestion window, round trip time, retransmission timeout, peer
+     * receive window and queue depths.
+     *
+     * @return the snapshot, or <tt>null</tt> if the socket is closed or has
+     * no association.
+     */
+    public SctpSocketStats stats()
+    {
+        long ptr;
+        try
+        {
+            ptr = lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return null;
+        }
+
+        try
+        {
+            int[] values = new int[SctpSocketStats.FIELD_COUNT];
+            return SctpJni.usrsctp_get_status(new long[] { ptr }, 1, values, 1)
+                    == 1
+                ? new SctpSocketStats(values)
+                : null;
+        }
+        finally
+        {
+            unlockPtr();
+        }
+    }
+
+    /**
+     * Sets the low watermark of the buffered amount. Once the buffered
+     * amount drops to or below it after having been above,
+     * {@link SctpSocketEventHandler#onBufferedAmountLow()} fires once.
+     *
+     * The stack reports the buffered amount only when a SACK leaves it at
+     * or below the threshold of
+     * {@link SctpSocketOptions.Builder#bufferedAmountLowThreshold(int)} the
+     * socket has been created with, or when the send buffer has been
+     * drained. A threshold above the one the socket has been created with
+     * is therefore noticed late.
+     *
+     * @param threshold the threshold in bytes, 0 by default.
+     */
+    public void setBufferedAmountLowThreshold(int threshold)
+    {
+        if (threshold < 0)
+        {
+            throw new IllegalArgumentException("threshold: " + threshold);
+        }
+        bufferedAmountLowThreshold = threshold;
+    }
+
+    public int getBufferedAmountLowThreshold()
+    {
+        return bufferedAmountLowThreshold;
+    }
+
+    private int sendBufferSize()
+    {
+        int sendBufferSize = this.sendBufferSize;
+        if (sendBufferSize < 0)
+        {
+            try
+            {
+                lockPtr();
+            }
+            catch (IOException ioe)
+            {
+                return -1;
+            }
+
+            try
+            {
+                sendBufferSize = SctpJni.usrsctp_get_send_buffer_size(ptr);
+                this.sendBufferSize = sendBufferSize;
+            }
+            finally
+            {
+                unlockPtr();
+            }
+        }
+        return sendBufferSize;
+    }
+
+    /**
+     * Callback triggered by SCTP stack whenever acknowledged data has been
+     * removed from the send buffer.
+     *
+     * @param sbFree the free space in the send buffer.
+     */
+    void onSendBufferFree(int sbFree)
+    {
+        int sendBufferSize = sendBufferSize();
+        if (sendBufferSize >= 0)
+        {
+            onBufferedAmount(Math.max(0, sendBufferSize - sbFree));
+        }
+    }
+
+    private void onBufferedAmount(long bufferedAmount)
+    {
+        estimatedBufferedAmount.set(bufferedAmount);
+        if (bufferedAmount <= bufferedAmountLowThreshold
+                && bufferedAmountLowArmed.compareAndSet(true, false))
+        {
+            fireEvent(SctpCallbackDispatcher.BUFFERED_AMOUNT_LOW);
+        }
+    }
+
+    /**
+     * Arms {@link SctpSocketEventHandler#onBufferedAmountLow()} if a send has
+     * (probably) left the buffered amount above the threshold or has been
+     * rejected for lack of room. Must be called with {@link #ptr} locked.
+     *
+     * @param sent the result of the send.
+     */
+    private void afterSend(int sent)
+    {
+        boolean arm
+            = sent == SctpSendResult.WOULD_BLOCK
+                || (sent >= 0
+                    && estimatedBufferedAmount.addAndGet(sent)
+                        > bufferedAmountLowThreshold);
+        if (arm && bufferedAmountLowArmed.compareAndSet(false, true))
+        {
+            // The stack may have drained the buffer between the send and
+            // the arming, with the event disarmed at the time.
+            int bufferedAmount = SctpJni.usrsctp_get_buffered_amount(ptr);
+            if (bufferedAmount >= 0)
+            {
+                onBufferedAmount(bufferedAmount);
+            }
+        }
+    }
+
+    /**
+     * Send SCTP app data through the stack and out. The bytes between the
+     * buffer's position and its limit are sent as one message; the position
+     * of the buffer is left unchanged. Direct buffers are handed to the
+     * native stack without an intermediate copy.
+     * @param data a direct or array-backed buffer holding the message.
+     * @return the number of bytes sent or one of the negative codes of
+     * {@link SctpSendResult}.
+     * @throws IllegalArgumentException if <tt>data</tt> is a read-only heap
+     * buffer, whose bytes the native stack cannot reach.
+     */
+    public int send(
+            ByteBuffer data, boolean ordered, int sid, int ppid)
+    {
+        return send(
+                data,
+                sid,
+                ppid,
+                ordered ? SendOptions.RELIABLE : SendOptions.UNORDERED);
+    }
+
+    /**
+     * Send SCTP app data through the stack and out, with the ordering,
+     * reliability and acknowledgement of the message set by
+     * <tt>options</tt>. The bytes between the buffer's position and its limit
+     * are sent as one message; the position of the buffer is left unchanged.
+     * A rejected send is not logged; it is up to the caller to act on the
+     * returned code, e.g. retry a {@link SctpSendResult#WOULD_BLOCK} once
+     * {@link SctpSocketEventHandler#onBufferedAmountLow()} fires.
+     * @param data a direct or array-backed buffer holding the message.
+     * @return the number of bytes sent or one of the negative codes of
+     * {@link SctpSendResult}.
+     * @throws IllegalArgumentException if <tt>data</tt> is a read-only heap
+     * buffer, whose bytes the native stack cannot reach.
+     */
+    public int send(ByteBuffer data, int sid, int ppid, SendOptions options)
+    {
+        checkSendable(data);
+
+        int ret;
+
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return SctpSendResult.CLOSED;
+        }
+
+        try
+        {
+            if (!socketConnected())
+            {
+                ret = SctpSendResult.NOT_CONNECTED;
+            }
+            else
+            {
+                long start
+                    = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
+                if (data.isDirect())
+                {
+                    ret = SctpJni.usrsctp_send_direct(
+                            ptr,
+                            data, data.position(), data.remaining(),
+                            options.flags, sid, ppid,
+                            options.prPolicy, options.prValue);
+                }
+                else
+                {
+                    ret = SctpJni.usrsctp_send(
+                            ptr,
+                            data.array(),
+                            data.arrayOffset() + data.position(),
+                            data.remaining(),
+                            options.flags, sid, ppid,
+                            options.prPolicy, options.prValue);
+                }
+                if (SctpSocketMetrics.ENABLED)
+                {
+                    metrics.onSend(ret, start);
+                }
+                afterSend(ret);
+            }
+        }
+        finally
+        {
+            unlockPtr();
+        }
+        return ret;
+    }
+
+    /**
+     * Send SCTP app data through the stack and out as one message made of
+     * the concatenated contents of <tt>parts</tt>, e.g. a header and a
+     * payload, without concatenating them in Java first. The bytes between
+     * the position and the limit of each buffer are sent; the positions of
+     * the buffers are left unchanged.
+     * @param parts direct or array-backed buffers, in message order.
+     * <tt>null</tt> elements are skipped.
+     * @return the number of bytes sent or one of the negative codes of
+     * {@link SctpSendResult}.
+     * @throws IllegalArgumentException if one of the buffers is a read-only
+     * heap buffer, whose bytes the native stack cannot reach.
+     */
+    public int send(
+            ByteBuffer[] parts, int sid, int ppid, SendOptions options)
+    {
+        for (ByteBuffer part : parts)
+        {
+            if (part != null)
+            {
+                checkSendable(part);
+            }
+        }
+
+        int ret;
+
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            return SctpSendResult.CLOSED;
+        }
+
+        try
+        {
+            if (!socketConnected())
+            {
+                ret = SctpSendResult.NOT_CONNECTED;
+            }
+            else
+            {
+                long start
+                    = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
+                ret = SctpJni.usrsctp_send_gather(
+                        ptr,
+                        parts, 0, parts.length,
+                        options.flags, sid, ppid,
+                        options.prPolicy, options.prValue);
+                if (SctpSocketMetrics.ENABLED)
+                {
+                    metrics.onSend(ret, start);
+                }
+                afterSend(ret);
+            }
+        }
+        finally
+        {
+            unlockPtr();
+        }
+        return ret;
+    }
+
+    /**
+     * Makes sure the native stack can read the bytes of <tt>data</tt>, i.e.
+     * that it is a direct buffer or is backed by an accessible array.
+     *
+     * @throws IllegalArgumentException if <tt>data</tt> is a read-only heap
+     * buffer.
+     */
+    static void checkSendable(ByteBuffer data)
+    {
+        if (!data.isDirect() && !data.hasArray())
+        {
+            throw new IllegalArgumentException(
+                    "Not a direct or array-backed buffer: " + data);
+        }
+    }
+
+    /**
+     * Sends all messages of <tt>batch</tt> with a single native call, which
+     * saves the per message locking and JNI transition of
+     * {@link #send(ByteBuffer, int, int, SendOptions)}. The result of each
+     * message is available through {@link SctpSendBatch#result(int)}.
+     * Sending stops at the first message rejected with
+     * {@link SctpSendResult#WOULD_BLOCK}, {@link SctpSendResult#CLOSED} or
+     * {@link SctpSendResult#NOT_CONNECTED}, so messages of a stream are never
+     * accepted out of order. Read-only heap buffers are rejected when added
+     * to the batch, as by the other sends.
+     * @return the number of messages sent.
+     */
+    public int sendBatch(SctpSendBatch batch)
+    {
+        if (batch.size == 0)
+        {
+            return 0;
+        }
+
+        try
+        {
+            lockPtr();
+        }
+        catch (IOException ioe)
+        {
+            batch.fail(SctpSendResult.CLOSED);
+            return 0;
+        }
+
+        try
+        {
+            if (!socketConnected())
+            {
+                batch.fail(SctpSendResult.NOT_CONNECTED);
+                return 0;
+            }
+
+            long start = SctpSocketMetrics.ENABLED ? System.nanoTime() : 0;
+            int accepted = SctpJni.usrsctp_send_batch(
+                    ptr,
+                    batch.buffers, batch.params, batch.results, batch.size);
+            if (SctpSocketMetrics.ENABLED)
+            {
+                metrics.sendLatency.recordSince(start);
+            }
+
+            for (int i = 0; i < batch.size; i++)
+            {
+                if (SctpSocketMetrics.ENABLED)
+                {
+                    metrics.onSendResult(batch.results[i]);
+                }
+                afterSend(batch.results[i]);
+            }
+            return accepted;
+        }
+        finally
+        {
+            unlockPtr();
         }
-        return ret;
     }
 }
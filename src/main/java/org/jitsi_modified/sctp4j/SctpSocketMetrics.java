@@ -0,0 +1,224 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * The hot path counters and latency histograms of a socket. Counters are
+ * {@link LongAdder}s, so that the threads handling a socket do not contend on
+ * them.
+ *
+ * Collection is switched on for all sockets with the system property
+ * <tt>org.jitsi_modified.sctp4j.metrics=true</tt>, read once when this class
+ * is loaded. While it is off no instances are created and the
+ * instrumentation, guarded by the constant {@link #ENABLED}, is removed by
+ * the JIT.
+ */
+public final class SctpSocketMetrics
+{
+    /**
+     * Whether metrics are collected.
+     */
+    public static final boolean ENABLED
+        = Boolean.getBoolean("org.jitsi_modified.sctp4j.metrics");
+
+    /* Application messages. */
+    final LongAdder messagesSent = new LongAdder();
+
+    final LongAdder bytesSent = new LongAdder();
+
+    final LongAdder messagesReceived = new LongAdder();
+
+    final LongAdder bytesReceived = new LongAdder();
+
+    /**
+     * Sends rejected with {@link SctpSendResult#WOULD_BLOCK}.
+     */
+    final LongAdder sendsBlocked = new LongAdder();
+
+    /**
+     * Sends rejected for any other reason.
+     */
+    final LongAdder sendFailures = new LongAdder();
+
+    /* Network packets. */
+    final LongAdder packetsIn = new LongAdder();
+
+    final LongAdder packetBytesIn = new LongAdder();
+
+    final LongAdder packetsOut = new LongAdder();
+
+    final LongAdder packetBytesOut = new LongAdder();
+
+    /**
+     * Incoming packets ignored because the socket was closed, messages
+     * received without a data callback and outgoing packets the sender has
+     * failed to send.
+     */
+    final LongAdder drops = new LongAdder();
+
+    /**
+     * The durations of the native send calls.
+     */
+    final SctpHistogram sendLatency = new SctpHistogram();
+
+    /**
+     * The durations of the native calls handling incoming packets, including
+     * the callbacks made from within them.
+     */
+    final SctpHistogram connInLatency = new SctpHistogram();
+
+    /**
+     * The durations of the data callbacks.
+     */
+    final SctpHistogram receiveCallbackDuration = new SctpHistogram();
+
+    /**
+     * The durations of the network packet senders.
+     */
+    final SctpHistogram sendCallbackDuration = new SctpHistogram();
+
+    SctpSocketMetrics()
+    {
+    }
+
+    /**
+     * @return a new {@link SctpSocketMetrics} if metrics are enabled,
+     * <tt>null</tt> otherwise.
+     */
+    static SctpSocketMetrics create()
+    {
+        return ENABLED ? new SctpSocketMetrics() : null;
+    }
+
+    /**
+     * Accounts for a native send call started at <tt>startNanos</tt>.
+     */
+    void onSend(int result, long startNanos)
+    {
+        sendLatency.recordSince(startNanos);
+        onSendResult(result);
+    }
+
+    void onSendResult(int result)
+    {
+        if (result >= 0)
+        {
+            messagesSent.increment();
+            bytesSent.add(result);
+        }
+        else if (result == SctpSendResult.WOULD_BLOCK)
+        {
+            sendsBlocked.increment();
+        }
+        else
+        {
+            sendFailures.increment();
+        }
+    }
+
+    void onConnIn(int packets, long bytes, long startNanos)
+    {
+        connInLatency.recordSince(startNanos);
+        packetsIn.add(packets);
+        packetBytesIn.add(bytes);
+    }
+
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The values of the metrics of a socket at some point. The values are
+     * read one by one while they are being updated, so a snapshot is not
+     * atomic.
+     */
+    public static final class Snapshot
+    {
+        public final long messagesSent;
+
+        public final long bytesSent;
+
+        public final long messagesReceived;
+
+        public final long bytesReceived;
+
+        public final long sendsBlocked;
+
+        public final long sendFailures;
+
+        public final long packetsIn;
+
+        public final long packetBytesIn;
+
+        public final long packetsOut;
+
+        public final long packetBytesOut;
+
+        public final long drops;
+
+        public final SctpHistogram.Snapshot sendLatency;
+
+        public final SctpHistogram.Snapshot connInLatency;
+
+        public final SctpHistogram.Snapshot receiveCallbackDuration;
+
+        public final SctpHistogram.Snapshot sendCallbackDuration;
+
+        private Snapshot(SctpSocketMetrics metrics)
+        {
+            messagesSent = metrics.messagesSent.sum();
+            bytesSent = metrics.bytesSent.sum();
+            messagesReceived = metrics.messagesReceived.sum();
+            bytesReceived = metrics.bytesReceived.sum();
+            sendsBlocked = metrics.sendsBlocked.sum();
+            sendFailures = metrics.sendFailures.sum();
+            packetsIn = metrics.packetsIn.sum();
+            packetBytesIn = metrics.packetBytesIn.sum();
+            packetsOut = metrics.packetsOut.sum();
+            packetBytesOut = metrics.packetBytesOut.sum();
+            drops = metrics.drops.sum();
+            sendLatency = metrics.sendLatency.snapshot();
+            connInLatency = metrics.connInLatency.snapshot();
+            receiveCallbackDuration
+                = metrics.receiveCallbackDuration.snapshot();
+            sendCallbackDuration = metrics.sendCallbackDuration.snapshot();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "SctpSocketMetrics{messagesSent=" + messagesSent
+                + ", bytesSent=" + bytesSent
+                + ", messagesReceived=" + messagesReceived
+                + ", bytesReceived=" + bytesReceived
+                + ", sendsBlocked=" + sendsBlocked
+                + ", sendFailures=" + sendFailures
+                + ", packetsIn=" + packetsIn
+                + ", packetBytesIn=" + packetBytesIn
+                + ", packetsOut=" + packetsOut
+                + ", packetBytesOut=" + packetBytesOut
+                + ", drops=" + drops
+                + ", sendLatency=" + sendLatency
+                + ", connInLatency=" + connInLatency
+                + ", receiveCallbackDuration=" + receiveCallbackDuration
+                + ", sendCallbackDuration=" + sendCallbackDuration + "}";
+        }
+    }
+}
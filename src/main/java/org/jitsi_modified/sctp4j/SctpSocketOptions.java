@@ -0,0 +1,297 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.util.*;
+
+/**
+ * The tuning of a socket, applied by
+ * {@link Sctp4j#createServerSocket(int, SctpSocketOptions,
+ * org.jitsi.utils.logging2.Logger)} and
+ * {@link Sctp4j#createClientSocket(int, SctpSocketOptions,
+ * org.jitsi.utils.logging2.Logger)} before the socket is connected. Options
+ * which have not been set keep the defaults of the SCTP stack, except for
+ * Nagle's algorithm, which is disabled unless enabled explicitly.
+ *
+ * Instances are immutable and created through a {@link Builder}:
+ * <pre>
+ * SctpSocketOptions options = SctpSocketOptions.builder()
+ *     .sendBufferSize(1024 * 1024)
+ *     .delayedSack(20, 2)
+ *     .build();
+ * </pre>
+ */
+public final class SctpSocketOptions
+{
+    /* The indices of the options in the table passed to the native code. */
+    static final int SNDBUF = 0;
+
+    static final int RCVBUF = 1;
+
+    static final int NODELAY = 2;
+
+    static final int MAXBURST = 3;
+
+    static final int SACK_DELAY = 4;
+
+    static final int SACK_FREQ = 5;
+
+    static final int RTO_INITIAL = 6;
+
+    static final int RTO_MIN = 7;
+
+    static final int RTO_MAX = 8;
+
+    static final int INIT_OSTREAMS = 9;
+
+    static final int INIT_MAX_INSTREAMS = 10;
+
+    static final int MAXSEG = 11;
+
+    static final int INTERLEAVING = 12;
+
+    static final int STREAM_SCHEDULER = 13;
+
+    static final int BUFFERED_AMOUNT_LOW = 14;
+
+    static final int COUNT = 15;
+
+    /**
+     * The value of an option which has not been set.
+     */
+    static final int UNSET = -1;
+
+    /**
+     * Options leaving everything at the defaults.
+     */
+    public static final SctpSocketOptions DEFAULT = builder().build();
+
+    /**
+     * The values of the options indexed by the constants above, in the
+     * layout expected by {@link SctpJni#usrsctp_socket(int, long, int[])}.
+     */
+    final int[] values;
+
+    private SctpSocketOptions(int[] values)
+    {
+        this.values = values;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder initialized with these options.
+     */
+    public Builder toBuilder()
+    {
+        Builder builder = new Builder();
+        System.arraycopy(values, 0, builder.values, 0, COUNT);
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof SctpSocketOptions
+            && Arrays.equals(values, ((SctpSocketOptions) o).values);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SctpSocketOptions" + Arrays.toString(values);
+    }
+
+    public static final class Builder
+    {
+        private final int[] values = new int[COUNT];
+
+        private Builder()
+        {
+            Arrays.fill(values, UNSET);
+        }
+
+        private Builder set(int option, int value, int min, String name)
+        {
+            if (value < min)
+            {
+                throw new IllegalArgumentException(name + ": " + value);
+            }
+            values[option] = value;
+            return this;
+        }
+
+        /**
+         * Sets <tt>SO_SNDBUF</tt>, the size of the send buffer in bytes,
+         * which bounds the amount of data which may be buffered before sends
+         * would block.
+         */
+        public Builder sendBufferSize(int bytes)
+        {
+            return set(SNDBUF, bytes, 1, "sendBufferSize");
+        }
+
+        /**
+         * Sets <tt>SO_RCVBUF</tt>, the size of the receive buffer in bytes,
+         * which bounds the receive window advertised to the peer.
+         */
+        public Builder receiveBufferSize(int bytes)
+        {
+            return set(RCVBUF, bytes, 1, "receiveBufferSize");
+        }
+
+        /**
+         * Sets <tt>SCTP_NODELAY</tt>. With <tt>false</tt> small messages are
+         * bundled by Nagle's algorithm, trading latency for fewer packets.
+         */
+        public Builder noDelay(boolean noDelay)
+        {
+            values[NODELAY] = noDelay ? 1 : 0;
+            return this;
+        }
+
+        /**
+         * Sets <tt>SCTP_MAXBURST</tt>, the maximum number of packets sent
+         * back to back in response to a single SACK.
+         */
+        public Builder maxBurst(int packets)
+        {
+            return set(MAXBURST, packets, 1, "maxBurst");
+        }
+
+        /**
+         * Sets <tt>SCTP_DELAYED_SACK</tt>.
+         *
+         * @param delayMillis the time a SACK may be delayed, 0 disabling
+         * delayed SACKs.
+         * @param frequency the number of packets after which a SACK is sent
+         * regardless of the delay.
+         */
+        public Builder delayedSack(int delayMillis, int frequency)
+        {
+            set(SACK_DELAY, delayMillis, 0, "delayMillis");
+            return set(SACK_FREQ, frequency, 1, "frequency");
+        }
+
+        /**
+         * Sets <tt>SCTP_RTOINFO</tt>, the bounds of the retransmission
+         * timeout, in milliseconds.
+         */
+        public Builder rto(int initialMillis, int minMillis, int maxMillis)
+        {
+            if (minMillis > initialMillis || initialMillis > maxMillis)
+            {
+                throw new IllegalArgumentException(
+                        "rto: min " + minMillis + ", initial " + initialMillis
+                            + ", max " + maxMillis);
+            }
+            set(RTO_INITIAL, initialMillis, 1, "initialMillis");
+            set(RTO_MIN, minMillis, 1, "minMillis");
+            return set(RTO_MAX, maxMillis, 1, "maxMillis");
+        }
+
+        /**
+         * Sets the stream counts of <tt>SCTP_INITMSG</tt>, which are
+         * negotiated with the peer when the association is set up.
+         */
+        public Builder streams(int outStreams, int maxInStreams)
+        {
+            if (outStreams > 0xFFFF || maxInStreams > 0xFFFF)
+            {
+                throw new IllegalArgumentException(
+                        "streams: " + outStreams + ", " + maxInStreams);
+            }
+            set(INIT_OSTREAMS, outStreams, 1, "outStreams");
+            return set(INIT_MAX_INSTREAMS, maxInStreams, 1, "maxInStreams");
+        }
+
+        /**
+         * Sets <tt>SCTP_MAXSEG</tt>, the maximum size of the DATA chunks
+         * messages are fragmented into.
+         */
+        public Builder maxSegmentSize(int bytes)
+        {
+            return set(MAXSEG, bytes, 1, "maxSegmentSize");
+        }
+
+        /**
+         * Enables the negotiation of message interleaving (I-DATA, RFC 8260)
+         * through <tt>SCTP_INTERLEAVING_SUPPORTED</tt>. Without it, once the
+         * first fragment of a message has been sent the remaining ones have
+         * to follow before any other message, so a large message on one
+         * stream holds back the small messages of all the others. Takes
+         * effect only if the peer supports I-DATA as well.
+         *
+         * Interleaving is up to the stream scheduler, which is
+         * {@link SctpStreamScheduler#ROUND_ROBIN} unless set with
+         * {@link #streamScheduler(SctpStreamScheduler)}.
+         */
+        public Builder interleaving(boolean interleaving)
+        {
+            values[INTERLEAVING] = interleaving ? 1 : 0;
+            return this;
+        }
+
+        /**
+         * Sets <tt>SCTP_PLUGGABLE_SS</tt>, the scheduler which picks the
+         * stream the next chunk is sent from.
+         */
+        public Builder streamScheduler(SctpStreamScheduler scheduler)
+        {
+            values[STREAM_SCHEDULER] = scheduler.value;
+            return this;
+        }
+
+        /**
+         * Sets the initial threshold of
+         * {@link SctpSocket#setBufferedAmountLowThreshold(int)} and has the
+         * stack report the free space of the send buffer whenever a SACK
+         * leaves the buffered amount at or below it. Without it, the stack
+         * reports the send buffer only once it has been drained, so
+         * {@link SctpSocket.SctpSocketEventHandler#onBufferedAmountLow()}
+         * fires when the buffered amount drops to 0 whatever the threshold,
+         * and SACKs cost no call into Java.
+         */
+        public Builder bufferedAmountLowThreshold(int bytes)
+        {
+            return set(BUFFERED_AMOUNT_LOW, bytes, 0, "bufferedAmountLow");
+        }
+
+        public SctpSocketOptions build()
+        {
+            int[] values = this.values.clone();
+            if (values[INTERLEAVING] == 1
+                    && values[STREAM_SCHEDULER] == UNSET)
+            {
+                // The default scheduler does not switch streams in the
+                // middle of a message.
+                values[STREAM_SCHEDULER]
+                    = SctpStreamScheduler.ROUND_ROBIN.value;
+            }
+            return new SctpSocketOptions(values);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Maps the ids handed to the native stack to their {@link SctpSocket}s
+ * without boxing or hashing, as the lookup runs for every packet in both
+ * directions.
+ *
+ * An id encodes a slot index in its low 32 bits and the generation of the
+ * slot in its high 32 bits. The generation is bumped every time the slot is
+ * reused, so that ids of closed sockets which are still in flight in the
+ * stack never resolve to the socket which has taken over their slot. The
+ * generation starts at 1, so no id is 0.
+ *
+ * Lookups are lock-free. Reserving and releasing slots is rare and is
+ * synchronized.
+ */
+class SctpSocketRegistry
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The sockets by slot. Replaced by a larger copy when all slots are in
+     * use; writers only ever modify the current array.
+     */
+    private volatile AtomicReferenceArray<SctpSocket> slots
+        = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    /**
+     * The current generation of each slot.
+     */
+    private int[] generations = new int[INITIAL_CAPACITY];
+
+    /**
+     * The slots which are not reserved, used as a stack.
+     */
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+
+    private int freeSlotCount;
+
+    SctpSocketRegistry()
+    {
+        for (int i = 0; i < INITIAL_CAPACITY; i++)
+        {
+            // Hand out the low slots first.
+            freeSlots[i] = INITIAL_CAPACITY - 1 - i;
+        }
+        freeSlotCount = INITIAL_CAPACITY;
+    }
+
+    private static int slot(long id)
+    {
+        return (int) id;
+    }
+
+    private static int generation(long id)
+    {
+        return (int) (id >>> 32);
+    }
+
+    /**
+     * Reserves a slot and returns the id for it. The id resolves to nothing
+     * until a socket is published with {@link #publish(SctpSocket)}.
+     *
+     * @return the new id.
+     */
+    synchronized long reserve()
+    {
+        if (freeSlotCount == 0)
+        {
+            grow();
+        }
+
+        int slot = freeSlots[--freeSlotCount];
+        int generation = generations[slot] + 1;
+        if (generation <= 0)
+        {
+            generation = 1;
+        }
+        generations[slot] = generation;
+
+        return ((long) generation << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    private void grow()
+    {
+        AtomicReferenceArray<SctpSocket> slots = this.slots;
+        int capacity = slots.length();
+        int newCapacity = capacity * 2;
+        AtomicReferenceArray<SctpSocket> newSlots
+            = new AtomicReferenceArray<>(newCapacity);
+
+        for (int i = 0; i < capacity; i++)
+        {
+            newSlots.set(i, slots.get(i));
+        }
+
+        int[] newGenerations = new int[newCapacity];
+        System.arraycopy(generations, 0, newGenerations, 0, capacity);
+        generations = newGenerations;
+
+        int[] newFreeSlots = new int[newCapacity];
+        for (int i = 0; i < capacity; i++)
+        {
+            newFreeSlots[i] = newCapacity - 1 - i;
+        }
+        freeSlots = newFreeSlots;
+        freeSlotCount = capacity;
+
+        this.slots = newSlots;
+    }
+
+    /**
+     * Makes a socket resolvable by its id, which must have been returned by
+     * {@link #reserve()} and not have been released since.
+     *
+     * @param socket the socket.
+     */
+    synchronized void publish(SctpSocket socket)
+    {
+        int slot = slot(socket.id);
+
+        if (generations[slot] != generation(socket.id))
+        {
+            throw new IllegalStateException(
+                    "Socket id " + Long.toHexString(socket.id) + " is stale");
+        }
+        slots.set(slot, socket);
+    }
+
+    /**
+     * Releases the slot of an id for reuse. Does nothing if the id is stale,
+     * i.e. it has been released already.
+     *
+     * @param id the id to release.
+     */
+    synchronized void release(long id)
+    {
+        int slot = slot(id);
+
+        if (slot < 0
+                || slot >= generations.length
+                || generations[slot] != generation(id))
+        {
+            return;
+        }
+
+        // Make the id stale right away rather than when the slot is reused.
+        generations[slot] = generation(id) + 1;
+        slots.set(slot, null);
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    /**
+     * Returns the socket an id has been published for.
+     *
+     * @param id the id.
+     * @return the socket, or <tt>null</tt> if the id is unknown or stale.
+     */
+    SctpSocket get(long id)
+    {
+        AtomicReferenceArray<SctpSocket> slots = this.slots;
+        int slot = slot(id);
+
+        if (slot < 0 || slot >= slots.length())
+        {
+            return null;
+        }
+
+        SctpSocket socket = slots.get(slot);
+        return (socket != null && socket.id == id) ? socket : null;
+    }
+
+    /**
+     * Copies the published sockets into <tt>dst</tt>, without locking. A
+     * socket published or released concurrently may or may not be included.
+     *
+     * @param dst the array to fill.
+     * @return the number of sockets copied, at most <tt>dst.length</tt>.
+     */
+    int snapshot(SctpSocket[] dst)
+    {
+        AtomicReferenceArray<SctpSocket> slots = this.slots;
+        int count = 0;
+
+        for (int i = 0, n = slots.length(); i < n && count < dst.length; i++)
+        {
+            SctpSocket socket = slots.get(i);
+            if (socket != null)
+            {
+                dst[count++] = socket;
+            }
+        }
+        return count;
+    }
+}
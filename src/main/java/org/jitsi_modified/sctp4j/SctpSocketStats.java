@@ -0,0 +1,153 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * A snapshot of the state of the association of a socket, as reported by
+ * the <tt>SCTP_STATUS</tt> socket option. The path values are those of the
+ * primary path.
+ *
+ * The stack does not keep retransmission counts per association; see
+ * {@link SctpStackStats} for the stack-wide ones.
+ */
+public final class SctpSocketStats
+{
+    /* The rows of the table filled by SctpJni.usrsctp_get_status. */
+    static final int STATE = 0;
+
+    static final int PEER_RWND = 1;
+
+    static final int UNACKED = 2;
+
+    static final int PENDING = 3;
+
+    static final int IN_STREAMS = 4;
+
+    static final int OUT_STREAMS = 5;
+
+    static final int CWND = 6;
+
+    static final int SRTT = 7;
+
+    static final int RTO = 8;
+
+    static final int MTU = 9;
+
+    static final int FIELD_COUNT = 10;
+
+    private final int[] values;
+
+    /**
+     * @param values the values of a socket indexed by the constants above.
+     */
+    SctpSocketStats(int[] values)
+    {
+        this.values = values;
+    }
+
+    /**
+     * @return the state of the association, one of the
+     * <tt>SCTP_CLOSED</tt>, <tt>SCTP_ESTABLISHED</tt>, ... values of
+     * usrsctp.
+     */
+    public int getState()
+    {
+        return values[STATE];
+    }
+
+    /**
+     * @return the congestion window of the primary path, in bytes.
+     */
+    public int getCwnd()
+    {
+        return values[CWND];
+    }
+
+    /**
+     * @return the smoothed round trip time of the primary path, in
+     * milliseconds.
+     */
+    public int getSrtt()
+    {
+        return values[SRTT];
+    }
+
+    /**
+     * @return the retransmission timeout of the primary path, in
+     * milliseconds.
+     */
+    public int getRto()
+    {
+        return values[RTO];
+    }
+
+    /**
+     * @return the MTU of the primary path, in bytes.
+     */
+    public int getMtu()
+    {
+        return values[MTU];
+    }
+
+    /**
+     * @return the receive window last advertised by the peer, in bytes.
+     */
+    public int getPeerRwnd()
+    {
+        return values[PEER_RWND];
+    }
+
+    /**
+     * @return the number of DATA chunks sent and not yet acknowledged.
+     */
+    public int getUnackedChunks()
+    {
+        return values[UNACKED];
+    }
+
+    /**
+     * @return the number of DATA chunks queued and not yet sent.
+     */
+    public int getPendingChunks()
+    {
+        return values[PENDING];
+    }
+
+    public int getInStreams()
+    {
+        return values[IN_STREAMS];
+    }
+
+    public int getOutStreams()
+    {
+        return values[OUT_STREAMS];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SctpSocketStats{state=" + getState()
+            + ", cwnd=" + getCwnd()
+            + ", srtt=" + getSrtt()
+            + ", rto=" + getRto()
+            + ", mtu=" + getMtu()
+            + ", peerRwnd=" + getPeerRwnd()
+            + ", unacked=" + getUnackedChunks()
+            + ", pending=" + getPendingChunks()
+            + ", streams=" + getInStreams() + "/" + getOutStreams() + "}";
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * A snapshot of the stack-wide counters of usrsctp, which covers all
+ * associations of the process. usrsctp keeps its retransmission counters
+ * only at this level.
+ */
+public final class SctpStackStats
+{
+    /* The indices of the counters filled by SctpJni.usrsctp_get_stat. */
+    static final int SENT_PACKETS = 0;
+
+    static final int RETRANSMITTED_DATA = 1;
+
+    static final int FAST_RETRANSMITS = 2;
+
+    static final int T3_TIMEOUTS = 3;
+
+    static final int COUNT = 4;
+
+    private final long[] values;
+
+    SctpStackStats(long[] values)
+    {
+        this.values = values;
+    }
+
+    /**
+     * @return the number of packets sent.
+     */
+    public long getSentPackets()
+    {
+        return values[SENT_PACKETS];
+    }
+
+    /**
+     * @return the number of DATA chunks retransmitted.
+     */
+    public long getRetransmittedData()
+    {
+        return values[RETRANSMITTED_DATA];
+    }
+
+    /**
+     * @return the number of fast retransmissions.
+     */
+    public long getFastRetransmits()
+    {
+        return values[FAST_RETRANSMITS];
+    }
+
+    /**
+     * @return the number of expirations of the T3-rtx timer.
+     */
+    public long getT3Timeouts()
+    {
+        return values[T3_TIMEOUTS];
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SctpStackStats{sentPackets=" + getSentPackets()
+            + ", retransmittedData=" + getRetransmittedData()
+            + ", fastRetransmits=" + getFastRetransmits()
+            + ", t3Timeouts=" + getT3Timeouts() + "}";
+    }
+}
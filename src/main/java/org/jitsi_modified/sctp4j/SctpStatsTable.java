@@ -0,0 +1,173 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * A preallocated table of {@link SctpSocketStats} for many sockets, filled
+ * by {@link Sctp4j#sweepStats(SctpStatsTable)} with a single native call.
+ * The values are kept as a struct of arrays, one <tt>int</tt> column per
+ * field, so that a sweep neither allocates nor touches an object per socket.
+ *
+ * Instances are not thread safe and may be reused for every sweep.
+ */
+public final class SctpStatsTable
+{
+    private final int capacity;
+
+    /**
+     * The swept sockets.
+     */
+    final SctpSocket[] sockets;
+
+    /**
+     * The native socket pointers of the sweep.
+     */
+    final long[] ptrs;
+
+    /**
+     * The columns of the fields of {@link SctpSocketStats}, laid out one
+     * after the other: the value of field <tt>f</tt> of row <tt>i</tt> is at
+     * <tt>f * capacity + i</tt>.
+     */
+    final int[] values;
+
+    int size;
+
+    /**
+     * @param capacity the maximum number of sockets a sweep reports.
+     */
+    public SctpStatsTable(int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        sockets = new SctpSocket[capacity];
+        ptrs = new long[capacity];
+        values = new int[capacity * SctpSocketStats.FIELD_COUNT];
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows filled by the last sweep.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private int get(int field, int row)
+    {
+        if (row < 0 || row >= size)
+        {
+            throw new IndexOutOfBoundsException("row: " + row);
+        }
+        return values[field * capacity + row];
+    }
+
+    /**
+     * @return the socket of a row.
+     */
+    public SctpSocket socket(int row)
+    {
+        if (row < 0 || row >= size)
+        {
+            throw new IndexOutOfBoundsException("row: " + row);
+        }
+        return sockets[row];
+    }
+
+    /**
+     * @return whether the stack has reported the status of the socket of a
+     * row. It has not if the socket has been closed or has no association.
+     */
+    public boolean isValid(int row)
+    {
+        return get(SctpSocketStats.STATE, row) >= 0;
+    }
+
+    public int state(int row)
+    {
+        return get(SctpSocketStats.STATE, row);
+    }
+
+    public int cwnd(int row)
+    {
+        return get(SctpSocketStats.CWND, row);
+    }
+
+    public int srtt(int row)
+    {
+        return get(SctpSocketStats.SRTT, row);
+    }
+
+    public int rto(int row)
+    {
+        return get(SctpSocketStats.RTO, row);
+    }
+
+    public int mtu(int row)
+    {
+        return get(SctpSocketStats.MTU, row);
+    }
+
+    public int peerRwnd(int row)
+    {
+        return get(SctpSocketStats.PEER_RWND, row);
+    }
+
+    public int unackedChunks(int row)
+    {
+        return get(SctpSocketStats.UNACKED, row);
+    }
+
+    public int pendingChunks(int row)
+    {
+        return get(SctpSocketStats.PENDING, row);
+    }
+
+    /**
+     * Copies a row into a {@link SctpSocketStats}.
+     */
+    public SctpSocketStats stats(int row)
+    {
+        int[] fields = new int[SctpSocketStats.FIELD_COUNT];
+        for (int f = 0; f < fields.length; f++)
+        {
+            fields[f] = get(f, row);
+        }
+        return new SctpSocketStats(fields);
+    }
+
+    /**
+     * Forgets the sockets of the last sweep.
+     */
+    void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            sockets[i] = null;
+            ptrs[i] = 0;
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * The stream schedulers of the SCTP stack (<tt>SCTP_PLUGGABLE_SS</tt>),
+ * which pick the stream the next chunk is sent from when several streams
+ * have data queued.
+ */
+public enum SctpStreamScheduler
+{
+    /**
+     * The default scheduler of the stack.
+     */
+    DEFAULT(0),
+
+    /**
+     * Serves the streams in turn, a chunk at a time.
+     */
+    ROUND_ROBIN(1),
+
+    /**
+     * Serves the streams in turn, a packet at a time.
+     */
+    ROUND_ROBIN_PACKET(2),
+
+    /**
+     * Serves the stream with the highest priority first.
+     */
+    PRIORITY(3),
+
+    /**
+     * Shares the bandwidth fairly between the streams.
+     */
+    FAIR_BANDWIDTH(4),
+
+    /**
+     * Sends the messages in the order they were queued, whatever their
+     * stream.
+     */
+    FIRST_COME(5);
+
+    /**
+     * The <tt>SCTP_SS_*</tt> value of the scheduler.
+     */
+    final int value;
+
+    SctpStreamScheduler(int value)
+    {
+        this.value = value;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+/**
+ * Per-message options of {@link SctpSocket#send(java.nio.ByteBuffer, int, int,
+ * SendOptions)}. Instances are immutable, so frequently used combinations can
+ * be kept in constants and reused for every message.
+ *
+ * Partially reliable messages (PR-SCTP, RFC 3758) are abandoned by the
+ * sender once their lifetime has expired or they have been retransmitted a
+ * given number of times, rather than being retransmitted until they are
+ * delivered. For real-time data this keeps stale messages from holding back
+ * fresh ones.
+ */
+public final class SendOptions
+{
+    /* snd_flags */
+    public static final int SCTP_UNORDERED = 0x0400;
+
+    /**
+     * Asks the peer to acknowledge the message without delay.
+     */
+    public static final int SCTP_SACK_IMMEDIATELY = 0x4000;
+
+    /* PR-SCTP policies */
+    public static final int SCTP_PR_SCTP_NONE = 0x0000;
+
+    /**
+     * The message is abandoned once it is older than the policy value, in
+     * milliseconds.
+     */
+    public static final int SCTP_PR_SCTP_TTL = 0x0001;
+
+    /**
+     * The message is abandoned once it has been retransmitted the policy
+     * value number of times.
+     */
+    public static final int SCTP_PR_SCTP_RTX = 0x0003;
+
+    /**
+     * Ordered and fully reliable, the default of SCTP.
+     */
+    public static final SendOptions RELIABLE
+        = new SendOptions(0, SCTP_PR_SCTP_NONE, 0);
+
+    /**
+     * Unordered and fully reliable.
+     */
+    public static final SendOptions UNORDERED = RELIABLE.unordered();
+
+    final int flags;
+
+    final int prPolicy;
+
+    final int prValue;
+
+    private SendOptions(int flags, int prPolicy, int prValue)
+    {
+        this.flags = flags;
+        this.prPolicy = prPolicy;
+        this.prValue = prValue;
+    }
+
+    /**
+     * @return options equal to these, but for unordered delivery.
+     */
+    public SendOptions unordered()
+    {
+        return new SendOptions(flags | SCTP_UNORDERED, prPolicy, prValue);
+    }
+
+    /**
+     * @return options equal to these, but asking the peer to acknowledge the
+     * message immediately rather than delaying its SACK.
+     */
+    public SendOptions sackImmediately()
+    {
+        return
+            new SendOptions(flags | SCTP_SACK_IMMEDIATELY, prPolicy, prValue);
+    }
+
+    /**
+     * @param millis the lifetime of the message in milliseconds.
+     * @return options equal to these, but abandoning the message once its
+     * lifetime has expired.
+     */
+    public SendOptions maxLifetime(int millis)
+    {
+        if (millis < 0)
+        {
+            throw new IllegalArgumentException("millis: " + millis);
+        }
+        return new SendOptions(flags, SCTP_PR_SCTP_TTL, millis);
+    }
+
+    /**
+     * @param count the number of retransmissions, 0 meaning the message is
+     * sent at most once.
+     * @return options equal to these, but abandoning the message once it has
+     * been retransmitted <tt>count</tt> times.
+     */
+    public SendOptions maxRetransmits(int count)
+    {
+        if (count < 0)
+        {
+            throw new IllegalArgumentException("count: " + count);
+        }
+        return new SendOptions(flags, SCTP_PR_SCTP_RTX, count);
+    }
+
+    public boolean isOrdered()
+    {
+        return (flags & SCTP_UNORDERED) == 0;
+    }
+
+    public boolean isSackImmediately()
+    {
+        return (flags & SCTP_SACK_IMMEDIATELY) != 0;
+    }
+
+    /**
+     * @return the PR-SCTP policy, one of the <tt>SCTP_PR_SCTP_*</tt>
+     * constants.
+     */
+    public int getPrPolicy()
+    {
+        return prPolicy;
+    }
+
+    /**
+     * @return the lifetime in milliseconds or the number of retransmissions,
+     * depending on {@link #getPrPolicy()}.
+     */
+    public int getPrValue()
+    {
+        return prValue;
+    }
+
+    @Override
+    public String toString()
+    {
+        String str = isOrdered() ? "ordered" : "unordered";
+
+        switch (prPolicy)
+        {
+            case SCTP_PR_SCTP_TTL:
+                str += ",ttl:" + prValue + "ms";
+                break;
+            case SCTP_PR_SCTP_RTX:
+                str += ",rtx:" + prValue;
+                break;
+        }
+        if (isSackImmediately())
+        {
+            str += ",sack_immediately";
+        }
+        return str;
+    }
+}
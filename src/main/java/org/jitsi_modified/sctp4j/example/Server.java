@@ -98,15 +98,7 @@ public class Server {
         }).start();
 
         server.listen();
-        while (!server.accept()) {
-            try
-            {
-                Thread.sleep(100);
-            } catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
-        }
+        server.acceptAsync().get();
         System.out.println("Server accepted connection");
         connectionReady.complete(true);
 
@@ -17,6 +17,7 @@
 #include "org_jitsi_modified_sctp4j_SctpJni.h"
 
 #include <errno.h>
+#include <pthread.h>
 #include <stdint.h>
 #include <stdio.h>
 #include <stdlib.h>
@@ -26,9 +27,96 @@
 
 #include <usrsctp.h>
 
-/* The name of the class which defines the callback methods. */
+/*
+ * The size of the packets which are copied out of Java arrays onto the stack
+ * rather than into heap memory. Covers any packet up to a common MTU.
+ */
+#define SCTP_STACK_PACKET_SIZE 2048
+
+/*
+ * The number of packets a batched egress pass queues at most before they are
+ * flushed to Java early.
+ */
+#define SCTP_EGRESS_BATCH_MAX 64
+
+/*
+ * The results of the send functions other than a count of accepted bytes,
+ * mirroring org.jitsi_modified.sctp4j.SctpSendResult.
+ */
+#define SCTP_SEND_ERROR -1
+#define SCTP_SEND_CLOSED -2
+#define SCTP_SEND_NOT_CONNECTED -3
+#define SCTP_SEND_WOULD_BLOCK -4
+#define SCTP_SEND_MESSAGE_TOO_LARGE -5
+
+/*
+ * The layout of the rows of the params table of usrsctp_send_batch,
+ * mirroring org.jitsi_modified.sctp4j.SctpSendBatch.
+ */
+#define SCTP_SEND_BATCH_STRIDE 5
+#define SCTP_SEND_BATCH_FLAGS 0
+#define SCTP_SEND_BATCH_SID 1
+#define SCTP_SEND_BATCH_PPID 2
+#define SCTP_SEND_BATCH_PR_POLICY 3
+#define SCTP_SEND_BATCH_PR_VALUE 4
+
+/*
+ * The indices of the socket options passed to usrsctp_socket, mirroring
+ * org.jitsi_modified.sctp4j.SctpSocketOptions. An option of -1 is unset.
+ */
+#define SCTP_OPT_SNDBUF 0
+#define SCTP_OPT_RCVBUF 1
+#define SCTP_OPT_NODELAY 2
+#define SCTP_OPT_MAXBURST 3
+#define SCTP_OPT_SACK_DELAY 4
+#define SCTP_OPT_SACK_FREQ 5
+#define SCTP_OPT_RTO_INITIAL 6
+#define SCTP_OPT_RTO_MIN 7
+#define SCTP_OPT_RTO_MAX 8
+#define SCTP_OPT_INIT_OSTREAMS 9
+#define SCTP_OPT_INIT_MAX_INSTREAMS 10
+#define SCTP_OPT_MAXSEG 11
+#define SCTP_OPT_INTERLEAVING 12
+#define SCTP_OPT_STREAM_SCHEDULER 13
+#define SCTP_OPT_BUFFERED_AMOUNT_LOW 14
+#define SCTP_OPT_COUNT 15
+#define SCTP_OPT_UNSET -1
+
+/*
+ * The fields written by usrsctp_get_status, mirroring
+ * org.jitsi_modified.sctp4j.SctpSocketStats.
+ */
+#define SCTP_STATUS_STATE 0
+#define SCTP_STATUS_PEER_RWND 1
+#define SCTP_STATUS_UNACKED 2
+#define SCTP_STATUS_PENDING 3
+#define SCTP_STATUS_IN_STREAMS 4
+#define SCTP_STATUS_OUT_STREAMS 5
+#define SCTP_STATUS_CWND 6
+#define SCTP_STATUS_SRTT 7
+#define SCTP_STATUS_RTO 8
+#define SCTP_STATUS_MTU 9
+#define SCTP_STATUS_FIELD_COUNT 10
+
+/*
+ * The counters written by usrsctp_get_stat, mirroring
+ * org.jitsi_modified.sctp4j.SctpStackStats.
+ */
+#define SCTP_STAT_SENT_PACKETS 0
+#define SCTP_STAT_RETRANSMITTED_DATA 1
+#define SCTP_STAT_FAST_RETRANSMITS 2
+#define SCTP_STAT_T3_TIMEOUTS 3
+#define SCTP_STAT_COUNT 4
+
+/* The name of the class which declares the native methods. */
 #define SCTP_CLASSNAME "org/jitsi_modified/sctp4j/SctpJni"
 
+/*
+ * The name of the class which defines the methods the stack's callbacks are
+ * dispatched to.
+ */
+#define SCTP4J_CLASSNAME "org/jitsi_modified/sctp4j/Sctp4j"
+
 /**
  * Represents the <code>struct socket</code> instances initialized by our SCTP
  * integration.
@@ -39,8 +127,52 @@ typedef struct _SctpSocket
     struct socket *so;
     void *id;
     int localPort;
+    /**
+     * Whether the packets the stack emits during a pass started on this
+     * socket are queued and handed to Java as a batch at the end of the pass.
+     */
+    int batchEgress;
 } SctpSocket;
 
+/** The accessors of a sysctl of usrsctp. */
+typedef struct _SctpSysctl
+{
+    int (*set)(uint32_t value);
+    uint32_t (*get)(void);
+} SctpSysctl;
+
+/** An outbound packet queued by a batched egress pass. */
+typedef struct _SctpQueuedPacket
+{
+    /** The address the stack has emitted the packet for. */
+    void *addr;
+    /** The offset of the packet in the data of the queue. */
+    size_t offset;
+    size_t length;
+} SctpQueuedPacket;
+
+typedef struct _SctpEgressQueue
+{
+    SctpQueuedPacket *packets;
+    size_t count;
+    char *data;
+    size_t dataLength;
+    size_t dataCapacity;
+} SctpEgressQueue;
+
+/**
+ * The state of the batched egress passes running on one thread. A pass is a
+ * call into usrsctp (e.g. usrsctp_conninput or usrsctp_sendv) made on behalf
+ * of a socket. Passes nest when Java calls back into the stack from within an
+ * upcall; the queued packets are flushed when the outermost one ends.
+ */
+typedef struct _SctpEgressBatch
+{
+    /** The nesting depth of the batched passes running on the thread. */
+    int depth;
+    SctpEgressQueue queue;
+} SctpEgressBatch;
+
 void
 callOnSctpInboundPacket
     (void *socketAddr, void *data, size_t length, uint16_t sid, uint16_t ssn,
@@ -53,6 +185,24 @@ callOnSctpOutboundPacket
 int
 connectSctp(SctpSocket *sctpSocket, int remotePort);
 
+static int
+beginEgressPass(int batchEgress);
+
+static void
+endEgressPass(JNIEnv *env, int batched);
+
+static void
+freeEgressBatch(void *batch);
+
+static int
+queueEgressPacket(void *addr, void *data, size_t length);
+
+static JNIEnv *
+getEnv(void);
+
+static void
+detachThread(void *env);
+
 static void
 debugSctpPrintf(const char *format, ...);
 
@@ -65,6 +215,29 @@ errorSctpPrintf(const char *format, ...);
 static void
 sctpPError(const char* message);
 
+static ssize_t
+sendSctp
+    (SctpSocket *sctpSocket, const void *data, size_t len, jint flags,
+        jint sid, jint ppid, jint prPolicy, jint prValue);
+
+static jint
+sendResult(ssize_t r, int err);
+
+static jint
+bufferRemaining(JNIEnv *env, jobject buffer, jint *position);
+
+static int
+gatherBuffer(JNIEnv *env, jobject part, jbyte *dst, jint capacity);
+
+static int
+setSocketOptions(struct socket *so, const jint *opts);
+
+static jboolean
+initSctp(jint sctp_debug_mask);
+
+static void
+connInputBuffer(JNIEnv *env, SctpSocket *sctpSocket, jobject pkt);
+
 void
 getSctpSockAddr(struct sockaddr_conn *sconn, void *addr, int port);
 
@@ -77,6 +250,12 @@ static int
 onSctpOutboundPacket
     (void *addr, void *buffer, size_t length, uint8_t tos, uint8_t set_df);
 
+static int
+onSctpSendBufferFree(struct socket *so, uint32_t sb_free, void *ulp_info);
+
+static void
+onSctpUpcall(struct socket *so, void *arg, int flags);
+
 static int SCTP_EVENT_TYPES[]
     = {
         SCTP_ASSOC_CHANGE,
@@ -86,15 +265,84 @@ static int SCTP_EVENT_TYPES[]
         SCTP_STREAM_RESET_EVENT
     };
 
+/*
+ * The sysctls which can be configured from Java, in the order of
+ * org.jitsi_modified.sctp4j.Sctp4jConfig.Sysctl.
+ */
+#define SCTP_SYSCTL(name) \
+    { usrsctp_sysctl_set_ ## name, usrsctp_sysctl_get_ ## name }
+
+static const SctpSysctl SCTP_SYSCTLS[]
+    = {
+        SCTP_SYSCTL(sctp_sendspace),
+        SCTP_SYSCTL(sctp_recvspace),
+        SCTP_SYSCTL(sctp_ecn_enable),
+        SCTP_SYSCTL(sctp_pr_enable),
+        SCTP_SYSCTL(sctp_max_burst_default),
+        SCTP_SYSCTL(sctp_max_chunks_on_queue),
+        SCTP_SYSCTL(sctp_delayed_sack_time_default),
+        SCTP_SYSCTL(sctp_sack_freq_default),
+        SCTP_SYSCTL(sctp_heartbeat_interval_default),
+        SCTP_SYSCTL(sctp_rto_max_default),
+        SCTP_SYSCTL(sctp_rto_min_default),
+        SCTP_SYSCTL(sctp_rto_initial_default),
+        SCTP_SYSCTL(sctp_init_rto_max_default),
+        SCTP_SYSCTL(sctp_valid_cookie_life_default),
+        SCTP_SYSCTL(sctp_init_rtx_max_default),
+        SCTP_SYSCTL(sctp_assoc_rtx_max_default),
+        SCTP_SYSCTL(sctp_path_rtx_max_default),
+        SCTP_SYSCTL(sctp_nr_incoming_streams_default),
+        SCTP_SYSCTL(sctp_nr_outgoing_streams_default),
+        SCTP_SYSCTL(sctp_blackhole),
+        SCTP_SYSCTL(sctp_initial_cwnd),
+        SCTP_SYSCTL(sctp_enable_sack_immediately),
+        SCTP_SYSCTL(sctp_default_cc_module),
+        SCTP_SYSCTL(sctp_default_ss_module),
+        SCTP_SYSCTL(sctp_default_frag_interleave),
+        SCTP_SYSCTL(sctp_max_retran_chunk),
+        SCTP_SYSCTL(sctp_shutdown_guard_time_default),
+        SCTP_SYSCTL(sctp_system_free_resc_limit),
+        SCTP_SYSCTL(sctp_asoc_free_resc_limit),
+        SCTP_SYSCTL(sctp_vtag_time_wait),
+        SCTP_SYSCTL(sctp_min_residual),
+        SCTP_SYSCTL(sctp_nrsack_enable),
+        SCTP_SYSCTL(sctp_reconfig_enable)
+    };
+
+#undef SCTP_SYSCTL
+
 /** The <code>jclass</code> with name <code>SCTP_CLASSNAME</code>. */
 static jclass Sctp_clazz = 0;
+/** The <code>jclass</code> with name <code>SCTP4J_CLASSNAME</code>. */
+static jclass Sctp4j_clazz = 0;
 static jmethodID Sctp_receiveCb = 0;
 static jmethodID Sctp_sendCb = 0;
+static jmethodID Sctp_sendBatchCb = 0;
+static jmethodID Sctp_sendBufferFreeCb = 0;
+static jmethodID Sctp_upcallCb = 0;
+/** The <code>jclass</code> of <code>java.nio.ByteBuffer</code>. */
+static jclass ByteBuffer_clazz = 0;
 static jmethodID Sctp_logDebugCb = 0;
 static jmethodID Sctp_logInfoCb = 0;
 static jmethodID Sctp_logErrorCb = 0;
+/**
+ * The public accessors of <code>java.nio.Buffer</code> called by the batch
+ * functions.
+ */
+static jmethodID Buffer_position = 0;
+static jmethodID Buffer_limit = 0;
+/** The accessors of the backing array of a heap ByteBuffer. */
+static jmethodID ByteBuffer_array = 0;
+static jmethodID ByteBuffer_arrayOffset = 0;
 /** The global, cached pointer to the Invocation API function table. */
 static JavaVM *Sctp_vm = NULL;
+/** The key of the <code>SctpEgressBatch</code> of each thread. */
+static pthread_key_t Sctp_egressBatchKey;
+/**
+ * The key of the <code>JNIEnv</code> of each native thread which has been
+ * attached to the VM by this library. The thread is detached when it exits.
+ */
+static pthread_key_t Sctp_envKey;
 
 /*
  * Class:     org_jitsi_modified_sctp4j_SctpJni
@@ -104,21 +352,153 @@ static JavaVM *Sctp_vm = NULL;
 JNIEXPORT void JNICALL
 Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in
     (JNIEnv *env, jclass clazz, jlong ptr, jbyteArray pkt, jint off, jint len)
+{
+    SctpSocket *sctpSocket;
+    jbyte stackBuf[SCTP_STACK_PACKET_SIZE];
+    jbyte *pkt_;
+
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+
+    // Only the packet itself is copied out of the (possibly much larger) Java
+    // array. A critical region can not be used here, because
+    // usrsctp_conninput calls back into Java before it returns.
+    if (len <= SCTP_STACK_PACKET_SIZE)
+    {
+        pkt_ = stackBuf;
+    }
+    else
+    {
+        pkt_ = malloc(len);
+        if (pkt_ == NULL)
+        {
+            sctpPError("Out of memory!");
+            return;
+        }
+    }
+
+    (*env)->GetByteArrayRegion(env, pkt, off, len, pkt_);
+    if ((*env)->ExceptionCheck(env) == JNI_FALSE)
+    {
+        int batched = beginEgressPass(sctpSocket->batchEgress);
+
+        usrsctp_conninput(
+                sctpSocket->id,
+                pkt_, len,
+                /* ecn_bits */ 0);
+        endEgressPass(env, batched);
+    }
+    if (pkt_ != stackBuf)
+        free(pkt_);
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    on_network_in_direct
+ * Signature: (JLjava/nio/ByteBuffer;II)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in_1direct
+    (JNIEnv *env, jclass clazz, jlong ptr, jobject pkt, jint off, jint len)
 {
     SctpSocket *sctpSocket;
     jbyte *pkt_;
 
     sctpSocket = (SctpSocket *) (intptr_t) ptr;
 
-    pkt_ = (*env)->GetByteArrayElements(env, pkt, NULL);
+    pkt_ = (*env)->GetDirectBufferAddress(env, pkt);
     if (pkt_)
     {
+        int batched = beginEgressPass(sctpSocket->batchEgress);
+
         usrsctp_conninput(
                 sctpSocket->id,
                 pkt_ + off, len,
                 /* ecn_bits */ 0);
-        (*env)->ReleaseByteArrayElements(env, pkt, pkt_, JNI_ABORT);
+        endEgressPass(env, batched);
+    }
+    else
+    {
+        errorSctpPrintf("on_network_in_direct: not a direct buffer\n");
+    }
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    on_network_in_batch
+ * Signature: (J[Ljava/nio/ByteBuffer;II)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in_1batch
+    (JNIEnv *env, jclass clazz, jlong ptr, jobjectArray pkts, jint off,
+        jint count)
+{
+    SctpSocket *sctpSocket;
+    jint i;
+    int batched;
+
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+
+    batched = beginEgressPass(sctpSocket->batchEgress);
+    for (i = off; i < off + count; i++)
+    {
+        jobject pkt = (*env)->GetObjectArrayElement(env, pkts, i);
+
+        if (pkt)
+        {
+            connInputBuffer(env, sctpSocket, pkt);
+            (*env)->DeleteLocalRef(env, pkt);
+        }
+    }
+    endEgressPass(env, batched);
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    on_network_in_multi
+ * Signature: ([J[Ljava/nio/ByteBuffer;II)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in_1multi
+    (JNIEnv *env, jclass clazz, jlongArray ptrs, jobjectArray pkts, jint off,
+        jint count)
+{
+    jlong *ptrs_;
+    jint i;
+    int batchEgress = 0;
+    int batched;
+
+    ptrs_ = (*env)->GetLongArrayElements(env, ptrs, NULL);
+    if (ptrs_ == NULL)
+        return;
+
+    // The whole call is one pass, which batches if any of the sockets does.
+    for (i = 0; i < count && !batchEgress; i++)
+    {
+        SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptrs_[i];
+
+        if (sctpSocket)
+            batchEgress = sctpSocket->batchEgress;
     }
+    batched = beginEgressPass(batchEgress);
+
+    for (i = 0; i < count; i++)
+    {
+        SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptrs_[i];
+        jobject pkt;
+
+        // A zero pointer marks a packet for a socket which has been closed.
+        if (sctpSocket == NULL)
+            continue;
+
+        pkt = (*env)->GetObjectArrayElement(env, pkts, off + i);
+        if (pkt)
+        {
+            connInputBuffer(env, sctpSocket, pkt);
+            (*env)->DeleteLocalRef(env, pkt);
+        }
+    }
+    endEgressPass(env, batched);
+    (*env)->ReleaseLongArrayElements(env, ptrs, ptrs_, JNI_ABORT);
 }
 
 /*
@@ -146,6 +526,89 @@ Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1accept
     }
 }
 
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_accept_association
+ * Signature: (J[J)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1accept_1association
+    (JNIEnv *env, jclass clazz, jlong ptr, jlongArray address)
+{
+    SctpSocket *sctpSocket;
+    struct socket *so;
+    struct sockaddr_conn sconn;
+    socklen_t len = sizeof(sconn);
+    jlong address_;
+
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    memset(&sconn, 0, sizeof(sconn));
+    so = usrsctp_accept(sctpSocket->so, (struct sockaddr *) &sconn, &len);
+    if (!so)
+        return 0;
+
+    // The listening socket stays as is. The address of the peer is the id
+    // its packets are passed to the stack with.
+    address_ = (jlong) (intptr_t) sconn.sconn_addr;
+    (*env)->SetLongArrayRegion(env, address, 0, 1, &address_);
+    return (jlong) (intptr_t) so;
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_association
+ * Signature: (IJ)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1association
+    (JNIEnv *env, jclass clazz, jint localPort, jlong idL)
+{
+    SctpSocket *sctpSocket;
+    void *id = (void *) (intptr_t) idL;
+
+    sctpSocket = malloc(sizeof(SctpSocket));
+    if (sctpSocket == NULL)
+    {
+        sctpPError("Out of memory!");
+        return 0;
+    }
+
+    // The peer is known to the stack by this address, from its first
+    // packet on. Its usrsctp socket is attached once it has been accepted.
+    usrsctp_register_address(id);
+
+    sctpSocket->so = NULL;
+    sctpSocket->id = id;
+    sctpSocket->localPort = localPort;
+    sctpSocket->batchEgress = 0;
+
+    return (jlong) (intptr_t) sctpSocket;
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_attach
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1attach
+    (JNIEnv *env, jclass clazz, jlong ptr, jlong soL)
+{
+    SctpSocket *sctpSocket;
+    struct socket *so = (struct socket *) (intptr_t) soL;
+
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    if (sctpSocket == NULL || sctpSocket->so != NULL)
+    {
+        usrsctp_close(so);
+        return;
+    }
+    // The accepted socket inherits the upper layer info of the listening
+    // socket, so its upcalls would be delivered to the listener.
+    usrsctp_set_ulpinfo(so, sctpSocket->id);
+    sctpSocket->so = so;
+}
+
 /*
  * Class:     org_jitsi_modified_sctp4j_SctpJni
  * Method:    usrsctp_close
@@ -158,7 +621,9 @@ Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1close
     SctpSocket *sctpSocket;
 
     sctpSocket = (SctpSocket *) (intptr_t) ptr;
-    usrsctp_close(sctpSocket->so);
+    // The socket of a peer of a listener has none until it is accepted.
+    if (sctpSocket->so)
+        usrsctp_close(sctpSocket->so);
     usrsctp_deregister_address(sctpSocket->id);
     free(sctpSocket);
 }
@@ -172,11 +637,14 @@ JNIEXPORT jboolean JNICALL
 Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1connect
     (JNIEnv *env, jclass clazz, jlong ptr, jint remotePort)
 {
+    SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    int batched = beginEgressPass(sctpSocket->batchEgress);
+    int r;
+
     // Try connecting the socket
-    return
-        connectSctp((SctpSocket *) (intptr_t) ptr, (int) remotePort)
-            ? JNI_TRUE
-            : JNI_FALSE;
+    r = connectSctp(sctpSocket, (int) remotePort);
+    endEgressPass(env, batched);
+    return r ? JNI_TRUE : JNI_FALSE;
 }
 
 /*
@@ -193,488 +661,1933 @@ Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1finish
 
 /*
  * Class:     org_jitsi_modified_sctp4j_SctpJni
- * Method:    usrsctp_init
- * Signature: (I)Z
+ * Method:    usrsctp_get_buffered_amount
+ * Signature: (J)I
  */
-JNIEXPORT jboolean JNICALL
-Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1init
-    (JNIEnv *env, jclass clazz, jint port, jint sctp_debug_mask)
+JNIEXPORT jint JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1buffered_1amount
+    (JNIEnv *env, jclass clazz, jlong ptr)
 {
-    /*
-     * First argument is udp_encapsulation_port which is not relevant to our
-     * AF_CONN use of SCTP.
-     */
-    infoSctpPrintf("org_jitsi_modified_sctp4j_SctpJni.c calling init\n");
-    usrsctp_init((uint16_t) port, onSctpOutboundPacket, debugSctpPrintf);
+    SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    struct sctp_sockstat sockstat;
+    socklen_t len = (socklen_t) sizeof(sockstat);
 
-    // Note: this code MUST be called after the call to usrsctp_init, above, as part of that
-    // call flow sets the debug to the default level (off)
-    debugSctpPrintf("=====>: org_jitsi_modified_sctp4j_SctpJni.c setting sctp_debug to %#x\n",
-                    (unsigned int)sctp_debug_mask);
-    usrsctp_sysctl_set_sctp_debug_on((uint32_t) sctp_debug_mask);
+    memset(&sockstat, 0, sizeof(sockstat));
+    if (usrsctp_getsockopt(
+                sctpSocket->so,
+                IPPROTO_SCTP,
+                SCTP_GET_SNDBUF_USE,
+                &sockstat,
+                &len))
+    {
+        return -1;
+    }
+    return (jint) sockstat.ss_total_sndbuf;
+}
 
-    /* TODO(ldixon) Consider turning this on/off. */
-    usrsctp_sysctl_set_sctp_ecn_enable(0);
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_get_send_buffer_size
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1send_1buffer_1size
+    (JNIEnv *env, jclass clazz, jlong ptr)
+{
+    SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    int sndbuf = 0;
+    socklen_t len = (socklen_t) sizeof(sndbuf);
 
-    return JNI_TRUE;
+    if (usrsctp_getsockopt(sctpSocket->so, SOL_SOCKET, SO_SNDBUF, &sndbuf, &len))
+        return -1;
+    return (jint) sndbuf;
 }
 
 /*
  * Class:     org_jitsi_modified_sctp4j_SctpJni
- * Method:    usrsctp_listen
- * Signature: (J)V
+ * Method:    usrsctp_get_stat
+ * Signature: ([J)V
  */
 JNIEXPORT void JNICALL
-Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1listen
-    (JNIEnv *env, jclass clazz, jlong ptr)
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1stat
+    (JNIEnv *env, jclass clazz, jlongArray counters)
 {
-    SctpSocket *sctpSocket;
-    struct sockaddr_conn sconn;
-    struct sockaddr_conn *psconn = &sconn;
-
-    sctpSocket = (SctpSocket *) (intptr_t) ptr;
-    /* Bind server socket. */
-    getSctpSockAddr(psconn, sctpSocket->id, sctpSocket->localPort);
-    if (usrsctp_bind(sctpSocket->so, (struct sockaddr *) psconn, sizeof(sconn))
-            < 0)
-    {
-        sctpPError("usrsctp_bind");
-    }
-    /* Make server side passive. */
-    if (usrsctp_listen(sctpSocket->so, 1) < 0)
-        sctpPError("usrsctp_listen");
+    struct sctpstat stat;
+    jlong counters_[SCTP_STAT_COUNT];
+    jsize count;
+
+    usrsctp_get_stat(&stat);
+    counters_[SCTP_STAT_SENT_PACKETS] = stat.sctps_sendpackets;
+    counters_[SCTP_STAT_RETRANSMITTED_DATA] = stat.sctps_sendretransdata;
+    counters_[SCTP_STAT_FAST_RETRANSMITS] = stat.sctps_sendfastretrans;
+    counters_[SCTP_STAT_T3_TIMEOUTS] = stat.sctps_timodata;
+
+    count = (*env)->GetArrayLength(env, counters);
+    (*env)->SetLongArrayRegion(
+            env,
+            counters, 0, count < SCTP_STAT_COUNT ? count : SCTP_STAT_COUNT,
+            counters_);
 }
 
 /*
  * Class:     org_jitsi_modified_sctp4j_SctpJni
- * Method:    usrsctp_send
- * Signature: (J[BIIZII)I
+ * Method:    usrsctp_get_status
+ * Signature: ([JI[II)I
  */
 JNIEXPORT jint JNICALL
-Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send
-    (JNIEnv *env, jclass clazz, jlong ptr, jbyteArray data, jint off, jint len,
-        jboolean ordered, jint sid, jint ppid)
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1status
+    (JNIEnv *env, jclass clazz, jlongArray ptrs, jint count, jintArray status,
+        jint stride)
 {
-    jbyte *data_;
-    ssize_t r;  /* returned by usrsctp_sendv */
+    jlong *ptrs_;
+    jint *status_;
+    jint read = 0;
+    jint i;
 
-    data_ = (*env)->GetByteArrayElements(env, data, NULL);
-    if (data_)
+    if (count <= 0)
+        return 0;
+    if (count > stride
+            || (*env)->GetArrayLength(env, status)
+                < SCTP_STATUS_FIELD_COUNT * stride)
     {
-        SctpSocket *sctpSocket;
-        struct sctp_sndinfo sndinfo;
-
-        sctpSocket = (SctpSocket *) (intptr_t) ptr;
+        errorSctpPrintf("usrsctp_get_status: status table too small\n");
+        return 0;
+    }
 
-        sndinfo.snd_assoc_id = 0;
-        sndinfo.snd_context = 0;
-        sndinfo.snd_flags = 0;
-        if (JNI_FALSE == ordered)
-            sndinfo.snd_flags |= SCTP_UNORDERED;
-        sndinfo.snd_ppid = htonl(ppid);
-        sndinfo.snd_sid = sid;
+    ptrs_ = (*env)->GetLongArrayElements(env, ptrs, NULL);
+    if (ptrs_ == NULL)
+        return 0;
+    // Not a critical region: usrsctp_getsockopt takes locks of the stack,
+    // which its timer thread may hold while calling into Java.
+    status_ = (*env)->GetIntArrayElements(env, status, NULL);
+    if (status_ == NULL)
+    {
+        (*env)->ReleaseLongArrayElements(env, ptrs, ptrs_, JNI_ABORT);
+        return 0;
+    }
 
-        r
-            = usrsctp_sendv(
-                    sctpSocket->so,
-                    data_ + off,
-                    len,
-                    /* to */ NULL,
-                    /* addrcnt */ 0,
-                    &sndinfo,
-                    (socklen_t) sizeof(sndinfo),
-                    SCTP_SENDV_SNDINFO,
-                    /* flags */ 0);
-        (*env)->ReleaseByteArrayElements(env, data, data_, JNI_ABORT);
-    }
-    else
+    for (i = 0; i < count; i++)
     {
-        r = -1;
+        SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptrs_[i];
+        struct sctp_status stat;
+        socklen_t len = (socklen_t) sizeof(stat);
+
+        memset(&stat, 0, sizeof(stat));
+        if (sctpSocket
+                && usrsctp_getsockopt(
+                        sctpSocket->so, IPPROTO_SCTP, SCTP_STATUS, &stat, &len)
+                    == 0)
+        {
+            status_[SCTP_STATUS_STATE * stride + i] = stat.sstat_state;
+            read++;
+        }
+        else
+        {
+            status_[SCTP_STATUS_STATE * stride + i] = -1;
+        }
+        status_[SCTP_STATUS_PEER_RWND * stride + i] = (jint) stat.sstat_rwnd;
+        status_[SCTP_STATUS_UNACKED * stride + i] = stat.sstat_unackdata;
+        status_[SCTP_STATUS_PENDING * stride + i] = stat.sstat_penddata;
+        status_[SCTP_STATUS_IN_STREAMS * stride + i] = stat.sstat_instrms;
+        status_[SCTP_STATUS_OUT_STREAMS * stride + i] = stat.sstat_outstrms;
+        status_[SCTP_STATUS_CWND * stride + i]
+            = (jint) stat.sstat_primary.spinfo_cwnd;
+        status_[SCTP_STATUS_SRTT * stride + i]
+            = (jint) stat.sstat_primary.spinfo_srtt;
+        status_[SCTP_STATUS_RTO * stride + i]
+            = (jint) stat.sstat_primary.spinfo_rto;
+        status_[SCTP_STATUS_MTU * stride + i]
+            = (jint) stat.sstat_primary.spinfo_mtu;
     }
-    if (r < 0)
-        sctpPError("Sctp send error: ");
-    return (jint) r;
+
+    (*env)->ReleaseIntArrayElements(env, status, status_, 0);
+    (*env)->ReleaseLongArrayElements(env, ptrs, ptrs_, JNI_ABORT);
+    return read;
 }
 
 /*
  * Class:     org_jitsi_modified_sctp4j_SctpJni
- * Method:    usrsctp_socket
+ * Method:    usrsctp_init
+ * Signature: (I)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1init
+    (JNIEnv *env, jclass clazz, jint port, jint sctp_debug_mask)
+{
+    /*
+     * First argument is udp_encapsulation_port which is not relevant to our
+     * AF_CONN use of SCTP.
+     */
+    infoSctpPrintf("org_jitsi_modified_sctp4j_SctpJni.c calling init\n");
+    usrsctp_init((uint16_t) port, onSctpOutboundPacket, debugSctpPrintf);
+    return initSctp(sctp_debug_mask);
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_init_nothreads
+ * Signature: (II)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1init_1nothreads
+    (JNIEnv *env, jclass clazz, jint port, jint sctp_debug_mask)
+{
+    // No timer thread is started; the timers are driven by the application
+    // through usrsctp_handle_timers.
+    infoSctpPrintf(
+            "org_jitsi_modified_sctp4j_SctpJni.c calling init_nothreads\n");
+    usrsctp_init_nothreads(
+            (uint16_t) port,
+            onSctpOutboundPacket,
+            debugSctpPrintf);
+    return initSctp(sctp_debug_mask);
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_handle_timers
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1handle_1timers
+    (JNIEnv *env, jclass clazz, jint elapsedMillis)
+{
+    // The packets emitted by the expired timers (retransmissions,
+    // heartbeats, delayed SACKs) are handed to Java in batches grouped by
+    // socket, which falls back to one by one for sockets without a batch
+    // sender.
+    int batched = beginEgressPass(1);
+
+    usrsctp_handle_timers((uint32_t) elapsedMillis);
+    endEgressPass(env, batched);
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_get_timeout
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1timeout
+    (JNIEnv *env, jclass clazz)
+{
+    return (jint) usrsctp_get_timeout();
+}
+
+/*
+ * Completes the initialization of the stack, whether it runs its own timer
+ * thread or not.
+ */
+static jboolean
+initSctp(jint sctp_debug_mask)
+{
+    // Note: this code MUST be called after the call to usrsctp_init, as part
+    // of that call flow sets the debug to the default level (off)
+    debugSctpPrintf("=====>: org_jitsi_modified_sctp4j_SctpJni.c setting sctp_debug to %#x\n",
+                    (unsigned int)sctp_debug_mask);
+    usrsctp_sysctl_set_sctp_debug_on((uint32_t) sctp_debug_mask);
+
+    /* TODO(ldixon) Consider turning this on/off. */
+    usrsctp_sysctl_set_sctp_ecn_enable(0);
+
+    return JNI_TRUE;
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_sysctl_get
  * Signature: (I)J
  */
 JNIEXPORT jlong JNICALL
-Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1socket
-    (JNIEnv *env, jclass clazz, jint localPort, jlong idL)
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1sysctl_1get
+    (JNIEnv *env, jclass clazz, jint sysctl)
 {
-    SctpSocket *sctpSocket;
-    struct socket *so;
-    struct linger linger_opt;
-    struct sctp_assoc_value stream_rst;
-    uint32_t nodelay = 1;
-    size_t i, eventTypeCount;
-    void *id = (void *) (intptr_t) idL;
-
-    struct sctp_event ev;
+    if (sysctl < 0
+            || (size_t) sysctl >= sizeof(SCTP_SYSCTLS) / sizeof(SCTP_SYSCTLS[0]))
+    {
+        return -1;
+    }
+    return (jlong) SCTP_SYSCTLS[sysctl].get();
+}
 
-    sctpSocket = malloc(sizeof(SctpSocket));
-    if (sctpSocket == NULL)
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_sysctl_set
+ * Signature: (IJ)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1sysctl_1set
+    (JNIEnv *env, jclass clazz, jint sysctl, jlong value)
+{
+    if (sysctl < 0
+            || (size_t) sysctl >= sizeof(SCTP_SYSCTLS) / sizeof(SCTP_SYSCTLS[0])
+            || value < 0
+            || value > UINT32_MAX)
     {
-        sctpPError("Out of memory!");
-        return 0;
+        return JNI_FALSE;
     }
+    // usrsctp rejects values out of the range of the sysctl with EINVAL.
+    return
+        SCTP_SYSCTLS[sysctl].set((uint32_t) value) == 0 ? JNI_TRUE : JNI_FALSE;
+}
 
-    // Register this object's index for usrsctp. This is used by SCTP to
-    // direct the packets received (by the created socket) to this class.
-    usrsctp_register_address(id);
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_listen
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1listen
+    (JNIEnv *env, jclass clazz, jlong ptr)
+{
+    SctpSocket *sctpSocket;
+    struct sockaddr_conn sconn;
+    struct sockaddr_conn *psconn = &sconn;
 
-    so
-        = usrsctp_socket(
-                AF_CONN,
-                SOCK_STREAM,
-                IPPROTO_SCTP,
-                onSctpInboundPacket,
-                /* send_cb */ NULL,
-                /* sb_threshold */ 0,
-                id);
-    if (so == NULL)
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    /* Bind server socket. */
+    getSctpSockAddr(psconn, sctpSocket->id, sctpSocket->localPort);
+    if (usrsctp_bind(sctpSocket->so, (struct sockaddr *) psconn, sizeof(sconn))
+            < 0)
     {
-        sctpPError("usrsctp_socket");
-        free(sctpSocket);
-        return 0;
+        sctpPError("usrsctp_bind");
     }
+    /* Make server side passive. */
+    if (usrsctp_listen(sctpSocket->so, 1) < 0)
+        sctpPError("usrsctp_listen");
+}
 
-    // Make the socket non-blocking. Connect, close, shutdown etc will not block
-    // the thread waiting for the socket operation to complete.
-    if (usrsctp_set_non_blocking(so, 1) < 0)
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_listen_all
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1listen_1all
+    (JNIEnv *env, jclass clazz, jlong ptr, jint backlog)
+{
+    SctpSocket *sctpSocket;
+    struct sockaddr_conn sconn;
+    struct sockaddr_conn *psconn = &sconn;
+
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    /* Bind to the wildcard address, so that the associations of every
+     * registered address are accepted on the port. */
+    getSctpSockAddr(psconn, NULL, sctpSocket->localPort);
+    if (usrsctp_bind(sctpSocket->so, (struct sockaddr *) psconn, sizeof(sconn))
+            < 0)
     {
-        sctpPError("Failed to set SCTP to non blocking.");
-        free(sctpSocket);
-        return 0;
+        sctpPError("usrsctp_bind");
     }
+    if (usrsctp_listen(sctpSocket->so, backlog) < 0)
+        sctpPError("usrsctp_listen");
+}
 
-    // This ensures that the usrsctp close call deletes the association. This
-    // prevents usrsctp from calling onSctpOutboundPacket with references to
-    // this class as the address.
-    linger_opt.l_onoff = 1;
-    linger_opt.l_linger = 0;
-    if (usrsctp_setsockopt(so, SOL_SOCKET, SO_LINGER, &linger_opt,
-                           sizeof(linger_opt)))
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_send
+ * Signature: (J[BIIIIIII)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send
+    (JNIEnv *env, jclass clazz, jlong ptr, jbyteArray data, jint off, jint len,
+        jint flags, jint sid, jint ppid, jint prPolicy, jint prValue)
+{
+    jbyte *data_;
+    ssize_t r;  /* returned by usrsctp_sendv */
+    int err;
+
+    data_ = (*env)->GetByteArrayElements(env, data, NULL);
+    if (data_)
     {
-        sctpPError("Failed to set SO_LINGER.");
-        free(sctpSocket);
-        return 0;
+        SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptr;
+        int batched = beginEgressPass(sctpSocket->batchEgress);
+
+        r
+            = sendSctp(
+                    sctpSocket,
+                    data_ + off, len,
+                    flags, sid, ppid, prPolicy, prValue);
+        /* The calls into the VM below may clobber errno. */
+        err = errno;
+        (*env)->ReleaseByteArrayElements(env, data, data_, JNI_ABORT);
+        endEgressPass(env, batched);
+    }
+    else
+    {
+        r = -1;
+        err = ENOMEM;
     }
+    return sendResult(r, err);
+}
 
-    // Enable stream ID resets.
-    stream_rst.assoc_id = SCTP_ALL_ASSOC;
-    stream_rst.assoc_value = 1;
-    if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_ENABLE_STREAM_RESET,
-                           &stream_rst, sizeof(stream_rst)))
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_send_direct
+ * Signature: (JLjava/nio/ByteBuffer;IIIIIII)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send_1direct
+    (JNIEnv *env, jclass clazz, jlong ptr, jobject data, jint off, jint len,
+        jint flags, jint sid, jint ppid, jint prPolicy, jint prValue)
+{
+    jbyte *data_;
+    ssize_t r;  /* returned by usrsctp_sendv */
+    int err;
+
+    // The memory of a direct buffer is handed to usrsctp as is, there is
+    // neither a copy nor any pinning involved.
+    data_ = (*env)->GetDirectBufferAddress(env, data);
+    if (data_)
     {
-        sctpPError("Failed to set SCTP_ENABLE_STREAM_RESET.");
-        free(sctpSocket);
-        return 0;
+        SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptr;
+        int batched = beginEgressPass(sctpSocket->batchEgress);
+
+        r
+            = sendSctp(
+                    sctpSocket,
+                    data_ + off, len,
+                    flags, sid, ppid, prPolicy, prValue);
+        err = errno;
+        endEgressPass(env, batched);
+    }
+    else
+    {
+        r = -1;
+        err = EINVAL;
     }
+    return sendResult(r, err);
+}
 
-    // Nagle.
-    if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_NODELAY, &nodelay,
-                           sizeof(nodelay)))
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_send_batch
+ * Signature: (J[Ljava/nio/ByteBuffer;[I[II)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send_1batch
+    (JNIEnv *env, jclass clazz, jlong ptr, jobjectArray buffers,
+        jintArray params, jintArray results, jint count)
+{
+    SctpSocket *sctpSocket;
+    jbyte stackBuf[SCTP_STACK_PACKET_SIZE];
+    jint *params_;
+    jint *results_;
+    jint accepted = 0;
+    jint i;
+    int batched;
+
+    params_ = (*env)->GetIntArrayElements(env, params, NULL);
+    if (params_ == NULL)
+        return 0;
+    results_ = (*env)->GetIntArrayElements(env, results, NULL);
+    if (results_ == NULL)
     {
-        sctpPError("Failed to set SCTP_NODELAY.");
-        free(sctpSocket);
+        (*env)->ReleaseIntArrayElements(env, params, params_, JNI_ABORT);
         return 0;
     }
 
-    // Subscribe to SCTP events.
-    eventTypeCount = sizeof(SCTP_EVENT_TYPES) / sizeof(int);
-    memset(&ev, 0, sizeof(ev));
-    ev.se_assoc_id = SCTP_ALL_ASSOC;
-    ev.se_on = 1;
-    for (i = 0; i < eventTypeCount; i++)
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+
+    // All messages are sent in one pass, so with egress batching enabled the
+    // packets they produce are handed to Java together.
+    batched = beginEgressPass(sctpSocket->batchEgress);
+    for (i = 0; i < count; i++)
     {
-        ev.se_type = SCTP_EVENT_TYPES[i];
-        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_EVENT, &ev, sizeof(ev))
-                < 0)
+        jint *row = params_ + i * SCTP_SEND_BATCH_STRIDE;
+        jobject buffer = (*env)->GetObjectArrayElement(env, buffers, i);
+        jbyte *data_;
+        jbyte *heap = NULL;
+        jint position;
+        jint len;
+        ssize_t r;
+        int err;
+
+        if (buffer == NULL)
         {
-            errorSctpPrintf("Failed to set SCTP_EVENT type: %i\n", ev.se_type);
-            free(sctpSocket);
-            return 0;
+            results_[i] = sendResult(-1, EINVAL);
+            continue;
+        }
+
+        len = bufferRemaining(env, buffer, &position);
+        if (len < 0)
+        {
+            (*env)->DeleteLocalRef(env, buffer);
+            results_[i] = sendResult(-1, EINVAL);
+            continue;
+        }
+        data_ = (*env)->GetDirectBufferAddress(env, buffer);
+        if (data_)
+        {
+            data_ += position;
+        }
+        else
+        {
+            // A heap buffer is copied out as the stack calls back into Java.
+            data_ = len <= SCTP_STACK_PACKET_SIZE ? stackBuf : malloc(len);
+            if (data_ == NULL)
+            {
+                (*env)->DeleteLocalRef(env, buffer);
+                results_[i] = sendResult(-1, ENOMEM);
+                continue;
+            }
+            if (data_ != stackBuf)
+                heap = data_;
+            // The buffer may have changed since it was measured.
+            if (gatherBuffer(env, buffer, data_, len) != len)
+            {
+                free(heap);
+                (*env)->DeleteLocalRef(env, buffer);
+                results_[i] = sendResult(-1, EINVAL);
+                continue;
+            }
+        }
+        (*env)->DeleteLocalRef(env, buffer);
+
+        r
+            = sendSctp(
+                    sctpSocket,
+                    data_, len,
+                    row[SCTP_SEND_BATCH_FLAGS],
+                    row[SCTP_SEND_BATCH_SID],
+                    row[SCTP_SEND_BATCH_PPID],
+                    row[SCTP_SEND_BATCH_PR_POLICY],
+                    row[SCTP_SEND_BATCH_PR_VALUE]);
+        err = errno;
+        free(heap);
+
+        results_[i] = sendResult(r, err);
+        if (r >= 0)
+        {
+            accepted++;
+        }
+        else if (results_[i] != SCTP_SEND_MESSAGE_TOO_LARGE
+                && results_[i] != SCTP_SEND_ERROR)
+        {
+            // The socket can take none of the remaining messages either, and
+            // accepting a later one of the same stream would reorder them.
+            jint j;
+
+            for (j = i + 1; j < count; j++)
+                results_[j] = results_[i];
+            break;
         }
     }
+    endEgressPass(env, batched);
 
-    sctpSocket->so = so;
-    sctpSocket->id = id;
-    sctpSocket->localPort = (int) localPort;
+    (*env)->ReleaseIntArrayElements(env, results, results_, 0);
+    (*env)->ReleaseIntArrayElements(env, params, params_, JNI_ABORT);
+    return accepted;
+}
 
-    return (jlong) (intptr_t) sctpSocket;
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_send_gather
+ * Signature: (J[Ljava/nio/ByteBuffer;IIIIIII)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send_1gather
+    (JNIEnv *env, jclass clazz, jlong ptr, jobjectArray parts, jint off,
+        jint count, jint flags, jint sid, jint ppid, jint prPolicy,
+        jint prValue)
+{
+    SctpSocket *sctpSocket;
+    jbyte stackBuf[SCTP_STACK_PACKET_SIZE];
+    jbyte *data_;
+    jlong total = 0;
+    jint len;
+    jint i;
+    ssize_t r;  /* returned by usrsctp_sendv */
+    int err;
+    int batched;
+
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+
+    for (i = off; i < off + count; i++)
+    {
+        jobject part = (*env)->GetObjectArrayElement(env, parts, i);
+
+        if (part)
+        {
+            jint position;
+            jint remaining = bufferRemaining(env, part, &position);
+
+            (*env)->DeleteLocalRef(env, part);
+            if (remaining < 0)
+                return sendResult(-1, EINVAL);
+            total += remaining;
+        }
+    }
+    // No message of 2 GiB fits in the send buffer.
+    if (total > INT32_MAX)
+        return sendResult(-1, EMSGSIZE);
+
+    // usrsctp_sendv takes the message as one contiguous block, so the parts
+    // are gathered into it with a single copy each.
+    len = (jint) total;
+    if (len <= SCTP_STACK_PACKET_SIZE)
+    {
+        data_ = stackBuf;
+    }
+    else
+    {
+        data_ = malloc(len);
+        if (data_ == NULL)
+            return sendResult(-1, ENOMEM);
+    }
+
+    // A part may have changed since it was measured, so each copy is bounded
+    // by the room left and the message is rejected unless the parts fill it.
+    len = 0;
+    for (i = off; i < off + count; i++)
+    {
+        jobject part = (*env)->GetObjectArrayElement(env, parts, i);
+
+        if (part)
+        {
+            int n = gatherBuffer(env, part, data_ + len, (jint) total - len);
+
+            (*env)->DeleteLocalRef(env, part);
+            if (n < 0)
+            {
+                if (data_ != stackBuf)
+                    free(data_);
+                return sendResult(-1, EINVAL);
+            }
+            len += n;
+        }
+    }
+    if (len != total)
+    {
+        if (data_ != stackBuf)
+            free(data_);
+        return sendResult(-1, EINVAL);
+    }
+
+    batched = beginEgressPass(sctpSocket->batchEgress);
+    r
+        = sendSctp(
+                sctpSocket,
+                data_, len,
+                flags, sid, ppid, prPolicy, prValue);
+    err = errno;
+    endEgressPass(env, batched);
+
+    if (data_ != stackBuf)
+        free(data_);
+    return sendResult(r, err);
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_set_egress_batching
+ * Signature: (JZ)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1set_1egress_1batching
+    (JNIEnv *env, jclass clazz, jlong ptr, jboolean enable)
+{
+    SctpSocket *sctpSocket = (SctpSocket *) (intptr_t) ptr;
+
+    sctpSocket->batchEgress = (JNI_TRUE == enable);
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_set_upcall
+ * Signature: (JZ)V
+ */
+JNIEXPORT void JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1set_1upcall
+    (JNIEnv *env, jclass clazz, jlong ptr, jboolean enable)
+{
+    SctpSocket *sctpSocket;
+
+    sctpSocket = (SctpSocket *) (intptr_t) ptr;
+    // The socket of a peer of a listener has none until it is accepted.
+    if (!sctpSocket->so)
+        return;
+    if (usrsctp_set_upcall(
+                sctpSocket->so,
+                (JNI_TRUE == enable) ? onSctpUpcall : NULL,
+                sctpSocket->id)
+            < 0)
+    {
+        sctpPError("usrsctp_set_upcall");
+    }
+}
+
+/*
+ * Class:     org_jitsi_modified_sctp4j_SctpJni
+ * Method:    usrsctp_socket
+ * Signature: (IJ[I)J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1socket
+    (JNIEnv *env, jclass clazz, jint localPort, jlong idL, jintArray options)
+{
+    SctpSocket *sctpSocket;
+    struct socket *so;
+    struct linger linger_opt;
+    struct sctp_assoc_value stream_rst;
+    jint opts[SCTP_OPT_COUNT];
+    size_t i, eventTypeCount;
+    void *id = (void *) (intptr_t) idL;
+    int (*sendCb)(struct socket *, uint32_t, void *) = NULL;
+    uint32_t sbThreshold = 0;
+
+    struct sctp_event ev;
+
+    for (i = 0; i < SCTP_OPT_COUNT; i++)
+        opts[i] = SCTP_OPT_UNSET;
+    if (options)
+    {
+        jsize count = (*env)->GetArrayLength(env, options);
+
+        (*env)->GetIntArrayRegion(
+                env,
+                options, 0, count < SCTP_OPT_COUNT ? count : SCTP_OPT_COUNT,
+                opts);
+    }
+
+    sctpSocket = malloc(sizeof(SctpSocket));
+    if (sctpSocket == NULL)
+    {
+        sctpPError("Out of memory!");
+        return 0;
+    }
+
+    // usrsctp reports the free space of the send buffer on every SACK which
+    // leaves at least sb_threshold bytes free, all of them if 0. Unless a
+    // low threshold of the buffered amount is asked for, the drained buffer
+    // is reported by SCTP_SENDER_DRY_EVENT alone.
+    if (opts[SCTP_OPT_BUFFERED_AMOUNT_LOW] != SCTP_OPT_UNSET)
+    {
+        uint32_t sndbuf
+            = opts[SCTP_OPT_SNDBUF] != SCTP_OPT_UNSET
+                ? (uint32_t) opts[SCTP_OPT_SNDBUF]
+                : usrsctp_sysctl_get_sctp_sendspace();
+        uint32_t low = (uint32_t) opts[SCTP_OPT_BUFFERED_AMOUNT_LOW];
+
+        sendCb = onSctpSendBufferFree;
+        sbThreshold = sndbuf > low ? sndbuf - low : 1;
+    }
+
+    // Register this object's index for usrsctp. This is used by SCTP to
+    // direct the packets received (by the created socket) to this class.
+    usrsctp_register_address(id);
+
+    so
+        = usrsctp_socket(
+                AF_CONN,
+                SOCK_STREAM,
+                IPPROTO_SCTP,
+                onSctpInboundPacket,
+                sendCb,
+                sbThreshold,
+                id);
+    if (so == NULL)
+    {
+        sctpPError("usrsctp_socket");
+        free(sctpSocket);
+        return 0;
+    }
+
+    // Make the socket non-blocking. Connect, close, shutdown etc will not block
+    // the thread waiting for the socket operation to complete.
+    if (usrsctp_set_non_blocking(so, 1) < 0)
+    {
+        sctpPError("Failed to set SCTP to non blocking.");
+        free(sctpSocket);
+        return 0;
+    }
+
+    // This ensures that the usrsctp close call deletes the association. This
+    // prevents usrsctp from calling onSctpOutboundPacket with references to
+    // this class as the address.
+    linger_opt.l_onoff = 1;
+    linger_opt.l_linger = 0;
+    if (usrsctp_setsockopt(so, SOL_SOCKET, SO_LINGER, &linger_opt,
+                           sizeof(linger_opt)))
+    {
+        sctpPError("Failed to set SO_LINGER.");
+        free(sctpSocket);
+        return 0;
+    }
+
+    // Enable stream ID resets.
+    stream_rst.assoc_id = SCTP_ALL_ASSOC;
+    stream_rst.assoc_value = 1;
+    if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_ENABLE_STREAM_RESET,
+                           &stream_rst, sizeof(stream_rst)))
+    {
+        sctpPError("Failed to set SCTP_ENABLE_STREAM_RESET.");
+        free(sctpSocket);
+        return 0;
+    }
+
+    if (setSocketOptions(so, opts) < 0)
+    {
+        usrsctp_close(so);
+        free(sctpSocket);
+        return 0;
+    }
+
+    // Subscribe to SCTP events.
+    eventTypeCount = sizeof(SCTP_EVENT_TYPES) / sizeof(int);
+    memset(&ev, 0, sizeof(ev));
+    ev.se_assoc_id = SCTP_ALL_ASSOC;
+    ev.se_on = 1;
+    for (i = 0; i < eventTypeCount; i++)
+    {
+        ev.se_type = SCTP_EVENT_TYPES[i];
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_EVENT, &ev, sizeof(ev))
+                < 0)
+        {
+            errorSctpPrintf("Failed to set SCTP_EVENT type: %i\n", ev.se_type);
+            free(sctpSocket);
+            return 0;
+        }
+    }
+
+    sctpSocket->so = so;
+    sctpSocket->id = id;
+    sctpSocket->localPort = (int) localPort;
+    sctpSocket->batchEgress = 0;
+
+    return (jlong) (intptr_t) sctpSocket;
+}
+
+/*
+ * The native methods of <code>SCTP_CLASSNAME</code>, bound by JNI_OnLoad
+ * rather than looked up by name on their first invocation.
+ */
+static JNINativeMethod SctpJni_methods[]
+    = {
+        {
+            "on_network_in",
+            "(J[BII)V",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in
+        },
+        {
+            "on_network_in_direct",
+            "(JLjava/nio/ByteBuffer;II)V",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in_1direct
+        },
+        {
+            "on_network_in_batch",
+            "(J[Ljava/nio/ByteBuffer;II)V",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in_1batch
+        },
+        {
+            "on_network_in_multi",
+            "([J[Ljava/nio/ByteBuffer;II)V",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_on_1network_1in_1multi
+        },
+        {
+            "usrsctp_accept",
+            "(J)Z",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1accept
+        },
+        {
+            "usrsctp_accept_association",
+            "(J[J)J",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1accept_1association
+        },
+        {
+            "usrsctp_association",
+            "(IJ)J",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1association
+        },
+        {
+            "usrsctp_attach",
+            "(JJ)V",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1attach
+        },
+        {
+            "usrsctp_close",
+            "(J)V",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1close
+        },
+        {
+            "usrsctp_connect",
+            "(JI)Z",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1connect
+        },
+        {
+            "usrsctp_finish",
+            "()Z",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1finish
+        },
+        {
+            "usrsctp_get_buffered_amount",
+            "(J)I",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1buffered_1amount
+        },
+        {
+            "usrsctp_get_send_buffer_size",
+            "(J)I",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1send_1buffer_1size
+        },
+        {
+            "usrsctp_get_stat",
+            "([J)V",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1stat
+        },
+        {
+            "usrsctp_get_status",
+            "([JI[II)I",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1status
+        },
+        {
+            "usrsctp_get_timeout",
+            "()I",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1get_1timeout
+        },
+        {
+            "usrsctp_handle_timers",
+            "(I)V",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1handle_1timers
+        },
+        {
+            "usrsctp_init",
+            "(II)Z",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1init
+        },
+        {
+            "usrsctp_init_nothreads",
+            "(II)Z",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1init_1nothreads
+        },
+        {
+            "usrsctp_listen",
+            "(J)V",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1listen
+        },
+        {
+            "usrsctp_listen_all",
+            "(JI)V",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1listen_1all
+        },
+        {
+            "usrsctp_send",
+            "(J[BIIIIIII)I",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send
+        },
+        {
+            "usrsctp_send_batch",
+            "(J[Ljava/nio/ByteBuffer;[I[II)I",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send_1batch
+        },
+        {
+            "usrsctp_send_direct",
+            "(JLjava/nio/ByteBuffer;IIIIIII)I",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send_1direct
+        },
+        {
+            "usrsctp_send_gather",
+            "(J[Ljava/nio/ByteBuffer;IIIIIII)I",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1send_1gather
+        },
+        {
+            "usrsctp_set_egress_batching",
+            "(JZ)V",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1set_1egress_1batching
+        },
+        {
+            "usrsctp_set_upcall",
+            "(JZ)V",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1set_1upcall
+        },
+        {
+            "usrsctp_socket",
+            "(IJ[I)J",
+            (void *) Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1socket
+        },
+        {
+            "usrsctp_sysctl_get",
+            "(I)J",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1sysctl_1get
+        },
+        {
+            "usrsctp_sysctl_set",
+            "(IJ)Z",
+            (void *)
+                Java_org_jitsi_1modified_sctp4j_SctpJni_usrsctp_1sysctl_1set
+        }
+    };
+
+/*
+ * Looks up a class and returns a global reference to it.
+ */
+static jclass
+findClass(JNIEnv *env, const char *name)
+{
+    jclass clazz = (*env)->FindClass(env, name);
+    jclass globalClazz = NULL;
+
+    if (clazz)
+    {
+        globalClazz = (*env)->NewGlobalRef(env, clazz);
+        (*env)->DeleteLocalRef(env, clazz);
+    }
+    return globalClazz;
+}
+
+/*
+ * Resolves all classes, methods and fields the library uses once, so that
+ * none of the callbacks has to look anything up.
+ */
+static int
+resolveCallbacks(JNIEnv *env)
+{
+    jclass bufferClazz;
+
+    Sctp_clazz = findClass(env, SCTP_CLASSNAME);
+    Sctp4j_clazz = findClass(env, SCTP4J_CLASSNAME);
+    ByteBuffer_clazz = findClass(env, "java/nio/ByteBuffer");
+    if (!Sctp_clazz || !Sctp4j_clazz || !ByteBuffer_clazz)
+        return 0;
+
+    Sctp_receiveCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp4j_clazz,
+                "onSctpIncomingData",
+                "(JLjava/nio/ByteBuffer;IIIJII)V");
+    Sctp_sendCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp4j_clazz,
+                "onOutgoingSctpData",
+                "(JLjava/nio/ByteBuffer;II)I");
+    Sctp_sendBatchCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp4j_clazz,
+                "onOutgoingSctpPackets",
+                "(J[Ljava/nio/ByteBuffer;I)I");
+    Sctp_sendBufferFreeCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp4j_clazz,
+                "onSctpSendBufferFree",
+                "(JI)V");
+    Sctp_upcallCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp4j_clazz,
+                "onSctpUpcall",
+                "(JI)V");
+    Sctp_logDebugCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp_clazz,
+                "logDebug",
+                "(Ljava/lang/String;)V");
+    Sctp_logInfoCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp_clazz,
+                "logInfo",
+                "(Ljava/lang/String;)V");
+    Sctp_logErrorCb
+        = (*env)->GetStaticMethodID(
+                env,
+                Sctp_clazz,
+                "logError",
+                "(Ljava/lang/String;)V");
+
+    bufferClazz = (*env)->FindClass(env, "java/nio/Buffer");
+    if (bufferClazz)
+    {
+        Buffer_position
+            = (*env)->GetMethodID(env, bufferClazz, "position", "()I");
+        Buffer_limit = (*env)->GetMethodID(env, bufferClazz, "limit", "()I");
+        (*env)->DeleteLocalRef(env, bufferClazz);
+    }
+    ByteBuffer_array
+        = (*env)->GetMethodID(env, ByteBuffer_clazz, "array", "()[B");
+    ByteBuffer_arrayOffset
+        = (*env)->GetMethodID(env, ByteBuffer_clazz, "arrayOffset", "()I");
+
+    return
+        Sctp_receiveCb && Sctp_sendCb && Sctp_sendBatchCb
+            && Sctp_sendBufferFreeCb && Sctp_upcallCb
+            && Sctp_logDebugCb && Sctp_logInfoCb && Sctp_logErrorCb
+            && Buffer_position && Buffer_limit
+            && ByteBuffer_array && ByteBuffer_arrayOffset;
+}
+
+static void
+releaseCallbacks(JNIEnv *env)
+{
+    jclass clazzes[] = { Sctp_clazz, Sctp4j_clazz, ByteBuffer_clazz };
+    size_t i;
+
+    Sctp_clazz = 0;
+    Sctp4j_clazz = 0;
+    ByteBuffer_clazz = 0;
+    Sctp_receiveCb = 0;
+    Sctp_sendCb = 0;
+    Sctp_sendBatchCb = 0;
+    Sctp_sendBufferFreeCb = 0;
+    Sctp_upcallCb = 0;
+    Sctp_logDebugCb = 0;
+    Sctp_logInfoCb = 0;
+    Sctp_logErrorCb = 0;
+    Buffer_position = 0;
+    Buffer_limit = 0;
+    ByteBuffer_array = 0;
+    ByteBuffer_arrayOffset = 0;
+
+    for (i = 0; i < sizeof(clazzes) / sizeof(jclass); i++)
+    {
+        if (env && clazzes[i])
+            (*env)->DeleteGlobalRef(env, clazzes[i]);
+    }
+}
+
+JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM *vm, void *reserved)
+{
+    JNIEnv *env;
+
+    if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_4) != JNI_OK)
+        return JNI_EVERSION;
+
+    if (!resolveCallbacks(env))
+    {
+        (*env)->ExceptionClear(env);
+        releaseCallbacks(env);
+        return JNI_EVERSION;
+    }
+    if ((*env)->RegisterNatives(
+                env,
+                Sctp_clazz,
+                SctpJni_methods,
+                sizeof(SctpJni_methods) / sizeof(JNINativeMethod))
+            != JNI_OK)
+    {
+        (*env)->ExceptionClear(env);
+        releaseCallbacks(env);
+        return JNI_EVERSION;
+    }
+    if (pthread_key_create(&Sctp_egressBatchKey, freeEgressBatch) != 0)
+    {
+        releaseCallbacks(env);
+        return JNI_EVERSION;
+    }
+    if (pthread_key_create(&Sctp_envKey, detachThread) != 0)
+    {
+        pthread_key_delete(Sctp_egressBatchKey);
+        releaseCallbacks(env);
+        return JNI_EVERSION;
+    }
+
+    Sctp_vm = vm;
+    return JNI_VERSION_1_4;
+}
+
+JNIEXPORT void JNICALL
+JNI_OnUnload(JavaVM *vm, void *reserved)
+{
+    JNIEnv *env;
+
+    Sctp_vm = NULL;
+    if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_4) != JNI_OK)
+        env = NULL;
+    releaseCallbacks(env);
+    pthread_key_delete(Sctp_egressBatchKey);
+    pthread_key_delete(Sctp_envKey);
+}
+
+/*
+ * Returns the JNIEnv of the current thread. Threads created by the VM are
+ * attached already. Native threads (e.g. the timer thread of usrsctp) are
+ * attached as daemons on their first callback, and their JNIEnv is kept until
+ * they exit, so that callbacks only pay for a thread-local lookup.
+ */
+static JNIEnv *
+getEnv(void)
+{
+    JavaVM *vm = Sctp_vm;
+    JNIEnv *env;
+
+    if (!vm)
+        return NULL;
+
+    env = pthread_getspecific(Sctp_envKey);
+    if (env)
+        return env;
+
+    switch ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_4))
+    {
+    case JNI_OK:
+        return env;
+    case JNI_EDETACHED:
+        if ((*vm)->AttachCurrentThreadAsDaemon(
+                    vm,
+                    (void **) &env,
+                    /* args */ NULL)
+                == JNI_OK)
+        {
+            pthread_setspecific(Sctp_envKey, env);
+            return env;
+        }
+        return NULL;
+    default:
+        return NULL;
+    }
+}
+
+/*
+ * Detaches a native thread attached by getEnv from the VM when it exits.
+ */
+static void
+detachThread(void *env)
+{
+    JavaVM *vm = Sctp_vm;
+
+    if (vm)
+        (*vm)->DetachCurrentThread(vm);
+}
+
+void
+callOnSctpInboundPacket
+    (void *socketAddr, void *data, size_t length, uint16_t sid, uint16_t ssn,
+        uint16_t tsn, uint32_t ppid, uint16_t context, int flags)
+{
+    JNIEnv *env = getEnv();
+
+    if (env)
+    {
+        jclass clazz = Sctp4j_clazz;
+
+        if (clazz)
+        {
+            jmethodID receiveCb = Sctp_receiveCb;
+
+            if (receiveCb)
+            {
+                /*
+                 * The data is handed to Java as a view of the receive buffer,
+                 * which is only valid until this function returns.
+                 */
+                jobject data_
+                    = (*env)->NewDirectByteBuffer(env, data, (jlong) length);
+
+                if (data_)
+                {
+                    (*env)->CallStaticVoidMethod(
+                            env,
+                            clazz,
+                            receiveCb,
+                            (jlong) (intptr_t) socketAddr,
+                            data_,
+                            (jint) sid,
+                            (jint) ssn,
+                            (jint) tsn,
+                            (jlong) ntohl(ppid),
+                            (jint) context,
+                            (jint) flags);
+                    /*
+                     * XXX It is very important to clear any exception that is
+                     * (possibly) currently being thrown. Otherwise, subsequent
+                     * JNI invocations may crash the process.
+                     */
+                    (*env)->ExceptionClear(env);
+                    (*env)->DeleteLocalRef(env, data_);
+                }
+            }
+            else
+            {
+                errorSctpPrintf("Failed to get onSctpIncomingData method\n");
+            }
+        }
+        else
+        {
+            errorSctpPrintf("Failed to get SCTP class\n");
+        }
+    }
+    else
+    {
+        errorSctpPrintf("Failed to attach new thread\n");
+    }
+}
+
+int
+callOnSctpOutboundPacket
+    (void *socketAddr, void *data, size_t length, uint8_t tos, uint8_t set_df)
+{
+    JNIEnv *env = getEnv();
+    jint r = -1;
+
+    if (env)
+    {
+        jclass clazz = Sctp4j_clazz;
+
+        if (clazz)
+        {
+            jmethodID sendCb = Sctp_sendCb;
+
+            if (sendCb)
+            {
+                /*
+                 * The packet is handed to Java as a view of the memory of
+                 * usrsctp, which is only valid until this function returns.
+                 */
+                jobject data_
+                    = (*env)->NewDirectByteBuffer(env, data, (jlong) length);
+
+                if (data_)
+                {
+                    r
+                        = (*env)->CallStaticIntMethod(
+                                env,
+                                clazz,
+                                sendCb,
+                                (jlong) (intptr_t) socketAddr,
+                                data_,
+                                (jint) tos,
+                                (jint) set_df);
+                    /*
+                     * XXX It is very important to clear any exception that is
+                     * (possibly) currently being thrown. Otherwise, subsequent
+                     * JNI invocations may crash the process.
+                     */
+                    (*env)->ExceptionClear(env);
+                    (*env)->DeleteLocalRef(env, data_);
+                }
+            }
+            else
+            {
+                errorSctpPrintf("Failed to get onOutgoingSctpData method\n");
+            }
+        }
+        else
+        {
+            errorSctpPrintf("Failed to get SCTP class\n");
+        }
+    }
+    else
+    {
+        errorSctpPrintf("Failed to attach new thread\n");
+    }
+    return r;
+}
+
+int
+connectSctp(SctpSocket *sctpSocket, int remotePort)
+{
+    struct socket *so;
+    struct sockaddr_conn sconn;
+    struct sockaddr_conn *psconn = &sconn;
+    int connect_result;
+
+    so = sctpSocket->so;
+
+    getSctpSockAddr(psconn, sctpSocket->id, sctpSocket->localPort);
+    if (usrsctp_bind(so, (struct sockaddr *) psconn, sizeof(sconn)) < 0)
+    {
+        sctpPError("usrsctp_bind");
+        return 0;
+    }
+
+    getSctpSockAddr(psconn, sctpSocket->id, remotePort);
+    connect_result
+        = usrsctp_connect(so, (struct sockaddr *) psconn, sizeof(sconn));
+    if (connect_result < 0 && errno != EINPROGRESS)
+    {
+        sctpPError("usrsctp_connect");
+        return 0;
+    }
+
+    return 1;
+}
+
+static SctpEgressBatch *
+getEgressBatch(int create)
+{
+    SctpEgressBatch *batch = pthread_getspecific(Sctp_egressBatchKey);
+
+    if (batch == NULL && create)
+    {
+        batch = calloc(1, sizeof(SctpEgressBatch));
+        if (batch && pthread_setspecific(Sctp_egressBatchKey, batch) != 0)
+        {
+            free(batch);
+            batch = NULL;
+        }
+    }
+    return batch;
+}
+
+/*
+ * Starts a pass on the current thread. Returns whether the pass takes part in
+ * egress batching, which is the case if the socket it is started for batches
+ * or if it is nested in a batched pass.
+ */
+static int
+beginEgressPass(int batchEgress)
+{
+    SctpEgressBatch *batch = getEgressBatch(batchEgress);
+
+    if (batch && (batch->depth > 0 || batchEgress))
+    {
+        batch->depth++;
+        return 1;
+    }
+    return 0;
+}
+
+static void
+freeEgressQueue(SctpEgressQueue *queue)
+{
+    free(queue->packets);
+    free(queue->data);
+    memset(queue, 0, sizeof(SctpEgressQueue));
+}
+
+static void
+freeEgressBatch(void *batch)
+{
+    freeEgressQueue(&((SctpEgressBatch *) batch)->queue);
+    free(batch);
+}
+
+/*
+ * Hands the packets queued for one address, from start (inclusive) to end
+ * (exclusive), to Java as an array of views of the queue's data.
+ */
+static void
+callOnSctpOutboundPackets
+    (JNIEnv *env, SctpEgressQueue *queue, size_t start, size_t end)
+{
+    jclass clazz = Sctp4j_clazz;
+    jmethodID sendBatchCb = Sctp_sendBatchCb;
+    jobjectArray packets;
+    size_t i;
+
+    if (!clazz || !sendBatchCb)
+    {
+        errorSctpPrintf("Failed to get onOutgoingSctpPackets method\n");
+        return;
+    }
+    if ((*env)->PushLocalFrame(env, 4) != JNI_OK)
+    {
+        (*env)->ExceptionClear(env);
+        return;
+    }
+
+    packets
+        = (*env)->NewObjectArray(env, end - start, ByteBuffer_clazz, NULL);
+    for (i = start; packets && i < end; i++)
+    {
+        SctpQueuedPacket *packet = queue->packets + i;
+        jobject packet_
+            = (*env)->NewDirectByteBuffer(
+                    env,
+                    queue->data + packet->offset,
+                    (jlong) packet->length);
+
+        if (!packet_)
+        {
+            packets = NULL;
+            break;
+        }
+        (*env)->SetObjectArrayElement(env, packets, i - start, packet_);
+        (*env)->DeleteLocalRef(env, packet_);
+    }
+    if (packets)
+    {
+        (*env)->CallStaticIntMethod(
+                env,
+                clazz,
+                sendBatchCb,
+                (jlong) (intptr_t) queue->packets[start].addr,
+                packets,
+                (jint) (end - start));
+    }
+    /*
+     * XXX It is very important to clear any exception that is (possibly)
+     * currently being thrown. Otherwise, subsequent JNI invocations may crash
+     * the process.
+     */
+    (*env)->ExceptionClear(env);
+    (*env)->PopLocalFrame(env, NULL);
+}
+
+/*
+ * Hands all packets queued on the current thread to Java, one upcall per run
+ * of packets emitted for the same address.
+ */
+static void
+flushEgressBatch(JNIEnv *env, SctpEgressBatch *batch)
+{
+    while (batch->queue.count)
+    {
+        // Detach the queue, so that passes started by the upcalls queue their
+        // packets into different memory than the one being handed to Java.
+        SctpEgressQueue queue = batch->queue;
+        size_t start = 0;
+
+        memset(&batch->queue, 0, sizeof(SctpEgressQueue));
+        while (start < queue.count)
+        {
+            void *addr = queue.packets[start].addr;
+            size_t end = start + 1;
+
+            while (end < queue.count && queue.packets[end].addr == addr)
+                end++;
+            callOnSctpOutboundPackets(env, &queue, start, end);
+            start = end;
+        }
+
+        // Keep the memory around for the next pass on this thread.
+        if (batch->queue.packets == NULL && batch->queue.data == NULL)
+        {
+            queue.count = 0;
+            queue.dataLength = 0;
+            batch->queue = queue;
+        }
+        else
+        {
+            freeEgressQueue(&queue);
+        }
+    }
+}
+
+static void
+endEgressPass(JNIEnv *env, int batched)
+{
+    SctpEgressBatch *batch;
+
+    if (!batched)
+        return;
+
+    batch = getEgressBatch(0);
+    if (batch && --batch->depth == 0)
+        flushEgressBatch(env, batch);
+}
+
+/*
+ * Queues a packet emitted by the stack if a batched pass is running on the
+ * current thread. Returns whether the packet has been queued.
+ */
+static int
+queueEgressPacket(void *addr, void *data, size_t length)
+{
+    SctpEgressBatch *batch = getEgressBatch(0);
+    SctpEgressQueue *queue;
+    SctpQueuedPacket *packet;
+
+    if (batch == NULL || batch->depth == 0)
+        return 0;
+
+    queue = &batch->queue;
+    // Full because it could not be flushed; the caller falls back to the
+    // direct upcall.
+    if (queue->count >= SCTP_EGRESS_BATCH_MAX)
+        return 0;
+    if (queue->packets == NULL)
+    {
+        queue->packets
+            = malloc(SCTP_EGRESS_BATCH_MAX * sizeof(SctpQueuedPacket));
+        if (queue->packets == NULL)
+            return 0;
+    }
+    if (queue->dataLength + length > queue->dataCapacity)
+    {
+        size_t capacity = 2 * queue->dataCapacity;
+        char *data_;
+
+        if (capacity < queue->dataLength + length)
+            capacity = queue->dataLength + length;
+        if (capacity < SCTP_EGRESS_BATCH_MAX * SCTP_STACK_PACKET_SIZE / 4)
+            capacity = SCTP_EGRESS_BATCH_MAX * SCTP_STACK_PACKET_SIZE / 4;
+        data_ = realloc(queue->data, capacity);
+        if (data_ == NULL)
+            return 0;
+        queue->data = data_;
+        queue->dataCapacity = capacity;
+    }
+
+    packet = queue->packets + queue->count++;
+    packet->addr = addr;
+    packet->offset = queue->dataLength;
+    packet->length = length;
+    memcpy(queue->data + queue->dataLength, data, length);
+    queue->dataLength += length;
+
+    // Don't let a long pass hold back its packets indefinitely.
+    if (queue->count == SCTP_EGRESS_BATCH_MAX)
+    {
+        JNIEnv *env = getEnv();
+
+        if (env)
+            flushEgressBatch(env, batch);
+    }
+    return 1;
 }
 
-JNIEXPORT jint JNICALL
-JNI_OnLoad(JavaVM *vm, void *reserved)
+/*
+ * Passes the remaining bytes of a direct java.nio.ByteBuffer to usrsctp as an
+ * incoming network packet.
+ */
+static void
+connInputBuffer(JNIEnv *env, SctpSocket *sctpSocket, jobject pkt)
 {
-    JNIEnv *env;
-    jint r = JNI_EVERSION;
+    jbyte *pkt_ = (*env)->GetDirectBufferAddress(env, pkt);
 
-    if ((*vm)->AttachCurrentThreadAsDaemon(vm, (void **) &env, /* args */ NULL)
-            == JNI_OK)
+    if (pkt_)
     {
-        jclass clazz = (*env)->FindClass(env, SCTP_CLASSNAME);
+        jint position;
+        jint len = bufferRemaining(env, pkt, &position);
 
-        if (clazz)
+        if (len > 0)
         {
-            jmethodID receiveCb
-                = (*env)->GetStaticMethodID(
-                        env,
-                        clazz,
-                        "onSctpInboundPacket",
-                        "(J[BIIIJII)V");
+            usrsctp_conninput(
+                    sctpSocket->id,
+                    pkt_ + position, len,
+                    /* ecn_bits */ 0);
+        }
+    }
+    else
+    {
+        errorSctpPrintf("on_network_in_batch: not a direct buffer\n");
+    }
+}
 
-            if (receiveCb)
-            {
-                jmethodID sendCb
-                    = (*env)->GetStaticMethodID(
-                            env,
-                            clazz,
-                            "onSctpOutboundPacket",
-                            "(J[BII)I");
+/*
+ * Reads the position and the limit of a java.nio.Buffer through its public
+ * accessors. Returns the number of bytes between them, or -1 if an accessor
+ * has thrown.
+ */
+static jint
+bufferRemaining(JNIEnv *env, jobject buffer, jint *position)
+{
+    jint limit;
 
-                if (sendCb)
-                {
-                    jmethodID logDebugCb
-                        = (*env)->GetStaticMethodID(
-                               env,
-                               clazz,
-                               "logDebug",
-                               "(Ljava/lang/String;)V");
-
-                    jmethodID logInfoCb
-                        = (*env)->GetStaticMethodID(
-                               env,
-                               clazz,
-                               "logInfo",
-                               "(Ljava/lang/String;)V");
-
-                    jmethodID logErrorCb
-                        = (*env)->GetStaticMethodID(
-                               env,
-                               clazz,
-                               "logError",
-                               "(Ljava/lang/String;)V");
-
-                    if (logDebugCb && logInfoCb && logErrorCb)
-                    {
-                        clazz = (*env)->NewGlobalRef(env, clazz);
-                        if (clazz)
-                        {
-                            Sctp_clazz = clazz;
-                            Sctp_receiveCb = receiveCb;
-                            Sctp_sendCb = sendCb;
-                            Sctp_logDebugCb = logDebugCb;
-                            Sctp_logInfoCb = logInfoCb;
-                            Sctp_logErrorCb = logErrorCb;
-                            Sctp_vm = vm;
-                            r = JNI_VERSION_1_4;
-                        }
-                    }
-                }
-            }
-        }
+    *position = (*env)->CallIntMethod(env, buffer, Buffer_position);
+    limit = (*env)->CallIntMethod(env, buffer, Buffer_limit);
+    if ((*env)->ExceptionCheck(env))
+    {
+        (*env)->ExceptionClear(env);
+        return -1;
     }
-    return r;
+    return limit > *position ? limit - *position : 0;
 }
 
-JNIEXPORT void JNICALL
-JNI_OnUnload(JavaVM *vm, void *reserved)
+/*
+ * Copies the remaining bytes of a direct or heap java.nio.ByteBuffer to dst
+ * without changing the position of the buffer. Returns the number of bytes
+ * copied, or -1 if they exceed the capacity of dst or the buffer is neither
+ * direct nor backed by an accessible array.
+ */
+static int
+gatherBuffer(JNIEnv *env, jobject part, jbyte *dst, jint capacity)
 {
-    jclass clazz = Sctp_clazz;
+    jint position;
+    jint len = bufferRemaining(env, part, &position);
+    jbyte *src;
 
-    Sctp_clazz = 0;
-    Sctp_receiveCb = 0;
-    Sctp_sendCb = 0;
-    Sctp_logDebugCb = 0;
-    Sctp_logInfoCb = 0;
-    Sctp_logErrorCb = 0;
-    Sctp_vm = NULL;
+    if (len < 0 || len > capacity)
+        return -1;
+    if (len == 0)
+        return 0;
 
-    if (clazz)
+    src = (*env)->GetDirectBufferAddress(env, part);
+    if (src)
+    {
+        memcpy(dst, src + position, len);
+    }
+    else
     {
-        JNIEnv *env;
+        jbyteArray array
+            = (jbyteArray)
+                (*env)->CallObjectMethod(env, part, ByteBuffer_array);
+        jint arrayOffset;
 
-        if ((*vm)->AttachCurrentThreadAsDaemon(
-                    vm,
-                    (void **) &env,
-                    /* args */ NULL)
-                == JNI_OK)
+        // A read-only heap buffer throws ReadOnlyBufferException.
+        if ((*env)->ExceptionCheck(env))
+        {
+            (*env)->ExceptionClear(env);
+            return -1;
+        }
+        arrayOffset
+            = (*env)->CallIntMethod(env, part, ByteBuffer_arrayOffset);
+        (*env)->GetByteArrayRegion(
+                env,
+                array, arrayOffset + position, len,
+                dst);
+        (*env)->DeleteLocalRef(env, array);
+        if ((*env)->ExceptionCheck(env))
         {
-            (*env)->DeleteGlobalRef(env, clazz);
+            (*env)->ExceptionClear(env);
+            return -1;
         }
     }
+    return len;
 }
 
-void
-callOnSctpInboundPacket
-    (void *socketAddr, void *data, size_t length, uint16_t sid, uint16_t ssn,
-        uint16_t tsn, uint32_t ppid, uint16_t context, int flags)
+/*
+ * Applies the tuning options of a new socket, leaving the unset ones at the
+ * defaults of usrsctp. Nagle's algorithm is disabled unless SCTP_OPT_NODELAY
+ * is explicitly 0. The options apply to the association the socket is about
+ * to set up.
+ */
+static int
+setSocketOptions(struct socket *so, const jint *opts)
 {
-    JavaVM *vm = Sctp_vm;
-    JNIEnv *env;
+    uint32_t nodelay = opts[SCTP_OPT_NODELAY] == 0 ? 0 : 1;
+    struct sctp_assoc_value av;
+    int bufSize;
 
-    if (vm
-            && (*vm)->AttachCurrentThreadAsDaemon(
-                    vm,
-                    (void **) &env,
-                    /* args */ NULL)
-                == JNI_OK)
+    if (opts[SCTP_OPT_SNDBUF] != SCTP_OPT_UNSET)
     {
-        jclass clazz = Sctp_clazz;
-
-        if (clazz)
+        bufSize = opts[SCTP_OPT_SNDBUF];
+        if (usrsctp_setsockopt(so, SOL_SOCKET, SO_SNDBUF, &bufSize,
+                               sizeof(bufSize)))
         {
-            jmethodID receiveCb = Sctp_receiveCb;
+            sctpPError("Failed to set SO_SNDBUF.");
+            return -1;
+        }
+    }
+    if (opts[SCTP_OPT_RCVBUF] != SCTP_OPT_UNSET)
+    {
+        bufSize = opts[SCTP_OPT_RCVBUF];
+        if (usrsctp_setsockopt(so, SOL_SOCKET, SO_RCVBUF, &bufSize,
+                               sizeof(bufSize)))
+        {
+            sctpPError("Failed to set SO_RCVBUF.");
+            return -1;
+        }
+    }
 
-            if (receiveCb)
-            {
-                jbyteArray data_ = (*env)->NewByteArray(env, length);
+    // Nagle.
+    if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_NODELAY, &nodelay,
+                           sizeof(nodelay)))
+    {
+        sctpPError("Failed to set SCTP_NODELAY.");
+        return -1;
+    }
 
-                if (data_)
-                {
-                    (*env)->SetByteArrayRegion(
-                            env,
-                            data_,
-                            0,
-                            length,
-                            (jbyte *) data);
-                    (*env)->CallStaticVoidMethod(
-                            env,
-                            clazz,
-                            receiveCb,
-                            (jlong) (intptr_t) socketAddr,
-                            data_,
-                            (jint) sid,
-                            (jint) ssn,
-                            (jint) tsn,
-                            (jlong) ntohl(ppid),
-                            (jint) context,
-                            (jint) flags);
-                    /*
-                     * XXX It is very important to clear any exception that is
-                     * (possibly) currently being thrown. Otherwise, subsequent
-                     * JNI invocations may crash the process.
-                     */
-                    (*env)->ExceptionClear(env);
-                    (*env)->DeleteLocalRef(env, data_);
-                }
-            }
-            else
-            {
-                errorSctpPrintf("Failed to get onSctpInboundPacket method\n");
-            }
-        }
-        else
+    if (opts[SCTP_OPT_MAXBURST] != SCTP_OPT_UNSET)
+    {
+        av.assoc_id = SCTP_FUTURE_ASSOC;
+        av.assoc_value = (uint32_t) opts[SCTP_OPT_MAXBURST];
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_MAXBURST, &av,
+                               sizeof(av)))
         {
-            errorSctpPrintf("Failed to get SCTP class\n");
+            sctpPError("Failed to set SCTP_MAXBURST.");
+            return -1;
         }
     }
-    else
+
+    if (opts[SCTP_OPT_SACK_DELAY] != SCTP_OPT_UNSET
+            || opts[SCTP_OPT_SACK_FREQ] != SCTP_OPT_UNSET)
     {
-        errorSctpPrintf("Failed to attach new thread\n");
+        struct sctp_sack_info sack;
+
+        // A zero frequency leaves it unchanged, a zero delay disables
+        // delayed SACKs.
+        memset(&sack, 0, sizeof(sack));
+        sack.sack_assoc_id = SCTP_FUTURE_ASSOC;
+        sack.sack_delay = (uint32_t) opts[SCTP_OPT_SACK_DELAY];
+        if (opts[SCTP_OPT_SACK_FREQ] != SCTP_OPT_UNSET)
+            sack.sack_freq = (uint32_t) opts[SCTP_OPT_SACK_FREQ];
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_DELAYED_SACK, &sack,
+                               sizeof(sack)))
+        {
+            sctpPError("Failed to set SCTP_DELAYED_SACK.");
+            return -1;
+        }
     }
-}
 
-int
-callOnSctpOutboundPacket
-    (void *socketAddr, void *data, size_t length, uint8_t tos, uint8_t set_df)
-{
-    JavaVM *vm = Sctp_vm;
-    JNIEnv *env;
-    jint r = -1;
+    if (opts[SCTP_OPT_RTO_INITIAL] != SCTP_OPT_UNSET)
+    {
+        struct sctp_rtoinfo rto;
+
+        rto.srto_assoc_id = SCTP_FUTURE_ASSOC;
+        rto.srto_initial = (uint32_t) opts[SCTP_OPT_RTO_INITIAL];
+        rto.srto_min = (uint32_t) opts[SCTP_OPT_RTO_MIN];
+        rto.srto_max = (uint32_t) opts[SCTP_OPT_RTO_MAX];
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_RTOINFO, &rto,
+                               sizeof(rto)))
+        {
+            sctpPError("Failed to set SCTP_RTOINFO.");
+            return -1;
+        }
+    }
 
-    if (vm
-            && (*vm)->AttachCurrentThreadAsDaemon(
-                    vm,
-                    (void **) &env,
-                    /* args */ NULL)
-                == JNI_OK)
+    if (opts[SCTP_OPT_INIT_OSTREAMS] != SCTP_OPT_UNSET)
     {
-        jclass clazz = Sctp_clazz;
+        struct sctp_initmsg init;
+
+        // Zero fields are left unchanged.
+        memset(&init, 0, sizeof(init));
+        init.sinit_num_ostreams = (uint16_t) opts[SCTP_OPT_INIT_OSTREAMS];
+        init.sinit_max_instreams
+            = (uint16_t) opts[SCTP_OPT_INIT_MAX_INSTREAMS];
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_INITMSG, &init,
+                               sizeof(init)))
+        {
+            sctpPError("Failed to set SCTP_INITMSG.");
+            return -1;
+        }
+    }
 
-        if (clazz)
+    if (opts[SCTP_OPT_MAXSEG] != SCTP_OPT_UNSET)
+    {
+        av.assoc_id = SCTP_FUTURE_ASSOC;
+        av.assoc_value = (uint32_t) opts[SCTP_OPT_MAXSEG];
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_MAXSEG, &av,
+                               sizeof(av)))
         {
-            jmethodID sendCb = Sctp_sendCb;
+            sctpPError("Failed to set SCTP_MAXSEG.");
+            return -1;
+        }
+    }
 
-            if (sendCb)
-            {
-                jbyteArray data_ = (*env)->NewByteArray(env, length);
+    if (opts[SCTP_OPT_INTERLEAVING] == 1)
+    {
+        // I-DATA requires the receiver to interleave the fragments of the
+        // messages of different streams as well, which is level 2.
+        int level = 2;
 
-                if (data_)
-                {
-                    (*env)->SetByteArrayRegion(
-                            env,
-                            data_,
-                            0,
-                            length,
-                            (jbyte *) data);
-                    r
-                        = (*env)->CallStaticIntMethod(
-                                env,
-                                clazz,
-                                sendCb,
-                                (jlong) (intptr_t) socketAddr,
-                                data_,
-                                (jint) tos,
-                                (jint) set_df);
-                    /*
-                     * XXX It is very important to clear any exception that is
-                     * (possibly) currently being thrown. Otherwise, subsequent
-                     * JNI invocations may crash the process.
-                     */
-                    (*env)->ExceptionClear(env);
-                    (*env)->DeleteLocalRef(env, data_);
-                }
-            }
-            else
-            {
-                errorSctpPrintf("Failed to get onSctpInboundPacket method\n");
-            }
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_FRAGMENT_INTERLEAVE,
+                               &level, sizeof(level)))
+        {
+            sctpPError("Failed to set SCTP_FRAGMENT_INTERLEAVE.");
+            return -1;
         }
-        else
+        av.assoc_id = SCTP_FUTURE_ASSOC;
+        av.assoc_value = 1;
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_INTERLEAVING_SUPPORTED,
+                               &av, sizeof(av)))
         {
-            errorSctpPrintf("Failed to get SCTP class\n");
+            sctpPError("Failed to set SCTP_INTERLEAVING_SUPPORTED.");
+            return -1;
         }
     }
-    else
+
+    if (opts[SCTP_OPT_STREAM_SCHEDULER] != SCTP_OPT_UNSET)
     {
-        errorSctpPrintf("Failed to attach new thread\n");
+        av.assoc_id = SCTP_FUTURE_ASSOC;
+        av.assoc_value = (uint32_t) opts[SCTP_OPT_STREAM_SCHEDULER];
+        if (usrsctp_setsockopt(so, IPPROTO_SCTP, SCTP_PLUGGABLE_SS, &av,
+                               sizeof(av)))
+        {
+            sctpPError("Failed to set SCTP_PLUGGABLE_SS.");
+            return -1;
+        }
     }
-    return r;
+
+    return 0;
 }
 
-int
-connectSctp(SctpSocket *sctpSocket, int remotePort)
+/*
+ * Sends a message. The flags (e.g. SCTP_UNORDERED or SCTP_SACK_IMMEDIATELY)
+ * go into the snd_flags of the message. A PR-SCTP policy other than
+ * SCTP_PR_SCTP_NONE makes the message partially reliable, prValue being its
+ * lifetime in milliseconds (SCTP_PR_SCTP_TTL) or the maximum number of its
+ * retransmissions (SCTP_PR_SCTP_RTX).
+ */
+static ssize_t
+sendSctp
+    (SctpSocket *sctpSocket, const void *data, size_t len, jint flags,
+        jint sid, jint ppid, jint prPolicy, jint prValue)
 {
-    struct socket *so;
-    struct sockaddr_conn sconn;
-    struct sockaddr_conn *psconn = &sconn;
-    int connect_result;
+    struct sctp_sendv_spa spa;
 
-    so = sctpSocket->so;
+    spa.sendv_sndinfo.snd_assoc_id = 0;
+    spa.sendv_sndinfo.snd_context = 0;
+    spa.sendv_sndinfo.snd_flags = (uint16_t) flags;
+    spa.sendv_sndinfo.snd_ppid = htonl(ppid);
+    spa.sendv_sndinfo.snd_sid = (uint16_t) sid;
 
-    getSctpSockAddr(psconn, sctpSocket->id, sctpSocket->localPort);
-    if (usrsctp_bind(so, (struct sockaddr *) psconn, sizeof(sconn)) < 0)
+    if (prPolicy == SCTP_PR_SCTP_NONE)
     {
-        sctpPError("usrsctp_bind");
-        return 0;
+        return
+            usrsctp_sendv(
+                    sctpSocket->so,
+                    data,
+                    len,
+                    /* to */ NULL,
+                    /* addrcnt */ 0,
+                    &spa.sendv_sndinfo,
+                    (socklen_t) sizeof(spa.sendv_sndinfo),
+                    SCTP_SENDV_SNDINFO,
+                    /* flags */ 0);
     }
 
-    getSctpSockAddr(psconn, sctpSocket->id, remotePort);
-    connect_result
-        = usrsctp_connect(so, (struct sockaddr *) psconn, sizeof(sconn));
-    if (connect_result < 0 && errno != EINPROGRESS)
+    spa.sendv_flags = SCTP_SEND_SNDINFO_VALID | SCTP_SEND_PRINFO_VALID;
+    spa.sendv_prinfo.pr_policy = (uint16_t) prPolicy;
+    spa.sendv_prinfo.pr_value = (uint32_t) prValue;
+
+    return
+        usrsctp_sendv(
+                sctpSocket->so,
+                data,
+                len,
+                /* to */ NULL,
+                /* addrcnt */ 0,
+                &spa,
+                (socklen_t) sizeof(spa),
+                SCTP_SENDV_SPA,
+                /* flags */ 0);
+}
+
+/**
+ * Maps the result of sendSctp and the errno it has left behind to the value
+ * returned to Java. Rejections which are expected during normal operation,
+ * most notably a full send buffer, are reported silently; only the remaining
+ * failures are logged.
+ */
+static jint
+sendResult(ssize_t r, int err)
+{
+    if (r >= 0)
+        return (jint) r;
+
+    switch (err)
     {
-        sctpPError("usrsctp_connect");
-        return 0;
+    case EAGAIN:
+#if defined(EWOULDBLOCK) && EWOULDBLOCK != EAGAIN
+    case EWOULDBLOCK:
+#endif
+        return SCTP_SEND_WOULD_BLOCK;
+    case EMSGSIZE:
+        return SCTP_SEND_MESSAGE_TOO_LARGE;
+    case ENOTCONN:
+        return SCTP_SEND_NOT_CONNECTED;
+    case EPIPE:
+    case ECONNRESET:
+    case ECONNABORTED:
+    case EBADF:
+        return SCTP_SEND_CLOSED;
+    default:
+        errorSctpPrintf("Sctp send error: %s\n", strerror(err));
+        return SCTP_SEND_ERROR;
     }
-
-    return 1;
 }
 
 static int
@@ -682,17 +2595,11 @@ logSctpVPrintf(jmethodID logCb, const char* format, va_list args)
 {
     char buf[1024];
 
-    JavaVM *vm = Sctp_vm;
     JNIEnv *env;
 
     vsnprintf(buf, sizeof(buf), format, args);
 
-    if (vm
-            && (*vm)->AttachCurrentThreadAsDaemon(
-                    vm,
-                    (void **) &env,
-                    /* args */ NULL)
-                == JNI_OK)
+    if ((env = getEnv()))
     {
         jclass clazz = Sctp_clazz;
 
@@ -774,6 +2681,15 @@ onSctpInboundPacket
 {
     if (data)
     {
+        /*
+         * The address of the peer is the id of its socket. An association
+         * accepted by a listener socket shares the upper layer info of the
+         * listener until its own socket is attached, so the address is what
+         * tells the associations apart.
+         */
+        if (addr.sconn.sconn_family == AF_CONN && addr.sconn.sconn_addr)
+            ulp_info = addr.sconn.sconn_addr;
+
         // Pass the (packet) data to Java.
         if (flags & MSG_NOTIFICATION)
         {
@@ -806,11 +2722,86 @@ onSctpInboundPacket
     return 1;
 }
 
+/*
+ * Called by usrsctp when acknowledged data has been removed from the send
+ * buffer of a socket. Passes the free space left in the buffer to Java,
+ * which decides whether the buffered amount has dropped low enough for the
+ * application to be told.
+ */
+static int
+onSctpSendBufferFree(struct socket *so, uint32_t sb_free, void *ulp_info)
+{
+    JNIEnv *env = getEnv();
+
+    if (env)
+    {
+        jclass clazz = Sctp4j_clazz;
+        jmethodID sendBufferFreeCb = Sctp_sendBufferFreeCb;
+
+        if (clazz && sendBufferFreeCb)
+        {
+            (*env)->CallStaticVoidMethod(
+                    env,
+                    clazz,
+                    sendBufferFreeCb,
+                    (jlong) (intptr_t) ulp_info,
+                    (jint) sb_free);
+            /*
+             * XXX It is very important to clear any exception that is
+             * (possibly) currently being thrown. Otherwise, subsequent JNI
+             * invocations may crash the process.
+             */
+            (*env)->ExceptionClear(env);
+        }
+    }
+    return 1;
+}
+
+/*
+ * Called by usrsctp when the state of a socket with an upcall has changed,
+ * e.g. when an association is pending accept on a listening socket. Passes
+ * the events of the socket to Java, which does not call back into the stack
+ * from here.
+ */
+static void
+onSctpUpcall(struct socket *so, void *arg, int flags)
+{
+    JNIEnv *env = getEnv();
+    int events;
+
+    if (!env)
+        return;
+    events = usrsctp_get_events(so);
+    if (events > 0)
+    {
+        jclass clazz = Sctp4j_clazz;
+        jmethodID upcallCb = Sctp_upcallCb;
+
+        if (clazz && upcallCb)
+        {
+            (*env)->CallStaticVoidMethod(
+                    env,
+                    clazz,
+                    upcallCb,
+                    (jlong) (intptr_t) arg,
+                    (jint) events);
+            /*
+             * XXX It is very important to clear any exception that is
+             * (possibly) currently being thrown. Otherwise, subsequent JNI
+             * invocations may crash the process.
+             */
+            (*env)->ExceptionClear(env);
+        }
+    }
+}
+
 static int
 onSctpOutboundPacket
     (void *addr, void *buffer, size_t length, uint8_t tos, uint8_t set_df)
 {
     if (buffer && length) {
+        if (queueEgressPacket(addr, buffer, length))
+            return 0;
         return callOnSctpOutboundPacket(addr, buffer, length, tos, set_df);
     }
 
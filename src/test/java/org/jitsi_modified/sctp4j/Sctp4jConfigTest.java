@@ -0,0 +1,66 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class Sctp4jConfigTest {
+    @Test
+    public void keepsOnlySetSysctls() {
+        Sctp4jConfig config = Sctp4jConfig.builder()
+            .sendSpace(1 << 20)
+            .blackhole(2)
+            .build();
+
+        assertEquals(
+                EnumSet.of(
+                        Sctp4jConfig.Sysctl.SENDSPACE,
+                        Sctp4jConfig.Sysctl.BLACKHOLE),
+                config.getSet());
+        assertEquals(1 << 20, config.get(Sctp4jConfig.Sysctl.SENDSPACE));
+        assertEquals(-1, config.get(Sctp4jConfig.Sysctl.RECVSPACE));
+        assertEquals(config, config.toBuilder().build());
+    }
+
+    @Test
+    public void acceptsFullUnsignedRange() {
+        Sctp4jConfig.builder().initialCwnd(0xFFFFFFFFL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfRangeValues() {
+        Sctp4jConfig.builder().blackhole(3);
+    }
+
+    @Test
+    public void streamsAreValidatedTogether() {
+        Sctp4jConfig.Builder builder = Sctp4jConfig.builder();
+        try
+        {
+            builder.streams(16, 0);
+            fail();
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+        assertTrue(builder.build().getSet().isEmpty());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jitsi_modified.sctp4j;
+
+import org.jitsi.utils.logging2.*;
+import org.junit.Test;
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class SctpCallbackDispatcherTest {
+    private final Logger logger
+        = new LoggerImpl(SctpCallbackDispatcherTest.class.getName());
+
+    /**
+     * An executor which runs its tasks when told to.
+     */
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private final List<String> delivered = new ArrayList<>();
+
+    private SctpSocket socket(int capacity, SctpOverflowPolicy policy)
+    {
+        SctpSocket socket = new SctpClientSocket(1, 1, logger);
+        socket.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) ->
+                delivered.add("data " + data.get(0));
+        socket.eventHandler = new SctpSocket.SctpSocketEventHandler()
+        {
+            @Override
+            public void onReady()
+            {
+                delivered.add("ready");
+            }
+
+            @Override
+            public void onDisconnected()
+            {
+                delivered.add("disconnected");
+            }
+        };
+        socket.setCallbackExecutor(tasks::add, capacity, policy);
+        return socket;
+    }
+
+    private static void receive(SctpSocket socket, int value)
+    {
+        ByteBuffer data = ByteBuffer.allocate(1);
+        data.put(0, (byte) value);
+        socket.onSctpIn(data, 0, 0, 0, 51, 0, 0);
+        // The stack reuses its buffer once the call returns.
+        data.put(0, (byte) -1);
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+        {
+            task.run();
+        }
+    }
+
+    @Test
+    public void deliversInOrderOffTheCallingThread() {
+        SctpSocket socket = socket(8, SctpOverflowPolicy.BLOCK);
+
+        socket.fireEvent(SctpCallbackDispatcher.READY);
+        receive(socket, 1);
+        receive(socket, 2);
+        socket.fireEvent(SctpCallbackDispatcher.DISCONNECTED);
+
+        assertTrue(delivered.isEmpty());
+        // One drain task for the whole burst.
+        assertEquals(1, tasks.size());
+
+        runTasks();
+        assertEquals(
+                Arrays.asList("ready", "data 1", "data 2", "disconnected"),
+                delivered);
+    }
+
+    @Test
+    public void dropsNewest() {
+        SctpSocket socket = socket(2, SctpOverflowPolicy.DROP_NEWEST);
+
+        for (int i = 1; i <= 4; i++)
+        {
+            receive(socket, i);
+        }
+        runTasks();
+
+        assertEquals(Arrays.asList("data 1", "data 2"), delivered);
+        assertEquals(2, socket.getCallbackDrops());
+    }
+
+    @Test
+    public void dropsOldestButNotEvents() {
+        SctpSocket socket = socket(2, SctpOverflowPolicy.DROP_OLDEST);
+
+        for (int i = 1; i <= 4; i++)
+        {
+            receive(socket, i);
+        }
+        // Queued although the queue is full.
+        socket.fireEvent(SctpCallbackDispatcher.DISCONNECTED);
+        runTasks();
+
+        assertEquals(
+                Arrays.asList("data 3", "data 4", "disconnected"),
+                delivered);
+        assertEquals(2, socket.getCallbackDrops());
+    }
+
+    @Test
+    public void coalescesQueuedEvents() {
+        SctpSocket socket = socket(1, SctpOverflowPolicy.DROP_NEWEST);
+
+        receive(socket, 1);
+        for (int i = 0; i < 100; i++)
+        {
+            socket.fireEvent(SctpCallbackDispatcher.READY);
+        }
+        socket.fireEvent(SctpCallbackDispatcher.DISCONNECTED);
+        runTasks();
+        // Delivered, so queued again.
+        socket.fireEvent(SctpCallbackDispatcher.READY);
+        runTasks();
+
+        assertEquals(
+                Arrays.asList("data 1", "ready", "disconnected", "ready"),
+                delivered);
+    }
+
+    @Test
+    public void throwingCallbackDoesNotStallTheQueue() {
+        SctpSocket socket = socket(8, SctpOverflowPolicy.BLOCK);
+        socket.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) -> {
+                delivered.add("data " + data.get(0));
+                if (data.get(0) == 1)
+                {
+                    throw new IllegalStateException();
+                }
+            };
+
+        receive(socket, 1);
+        receive(socket, 2);
+        socket.fireEvent(SctpCallbackDispatcher.DISCONNECTED);
+        runTasks();
+
+        assertEquals(
+                Arrays.asList("data 1", "data 2", "disconnected"),
+                delivered);
+    }
+
+    @Test
+    public void rejectedDeliveryCountsAsDrop() {
+        SctpSocket socket = socket(1, SctpOverflowPolicy.BLOCK);
+        socket.setCallbackExecutor(
+                task -> {
+                    throw new RejectedExecutionException();
+                },
+                1,
+                SctpOverflowPolicy.BLOCK);
+
+        // The second message would block forever with nothing draining.
+        receive(socket, 1);
+        receive(socket, 2);
+
+        assertTrue(delivered.isEmpty());
+        assertEquals(2, socket.getCallbackDrops());
+    }
+
+    @Test
+    public void blockingDropsOnTheThreadOfTheExecutor() {
+        // As an event loop which feeds the stack and runs the callbacks.
+        SctpSocket socket = socket(1, SctpOverflowPolicy.BLOCK);
+
+        receive(socket, 1);
+        runTasks();
+        receive(socket, 2);
+        long start = System.nanoTime();
+        // Waiting would hang: the drain task is queued behind this thread.
+        receive(socket, 3);
+        assertTrue(
+                System.nanoTime() - start
+                    < SctpCallbackDispatcher.BLOCK_TIMEOUT_NANOS);
+        runTasks();
+
+        assertEquals(Arrays.asList("data 1", "data 2"), delivered);
+        assertEquals(1, socket.getCallbackDrops());
+    }
+
+    @Test
+    public void blockingGivesUpAfterTimeout() {
+        SctpSocket socket = socket(1, SctpOverflowPolicy.BLOCK);
+
+        receive(socket, 1);
+        // No drain task has run yet, so the producer waits for one.
+        long start = System.nanoTime();
+        receive(socket, 2);
+        assertTrue(
+                System.nanoTime() - start
+                    >= SctpCallbackDispatcher.BLOCK_TIMEOUT_NANOS);
+        runTasks();
+
+        assertEquals(Arrays.asList("data 1"), delivered);
+        assertEquals(1, socket.getCallbackDrops());
+    }
+
+    @Test
+    public void blockingDrainsInPlaceWithDirectExecutor() {
+        SctpSocket socket = new SctpClientSocket(1, 1, logger);
+        socket.bufferDataCallback
+            = (data, sid, ssn, tsn, ppid, context, flags) ->
+                delivered.add("data " + data.get(0));
+        socket.setCallbackExecutor(Runnable::run, 1, SctpOverflowPolicy.BLOCK);
+
+        for (int i = 1; i <= 3; i++)
+        {
+            receive(socket, i);
+        }
+
+        assertEquals(
+                Arrays.asList("data 1", "data 2", "data 3"),
+                delivered);
+        assertEquals(0, socket.getCallbackDrops());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SctpHistogramTest {
+    @Test
+    public void bucketsByPowerOfTwo() {
+        assertEquals(0, SctpHistogram.bucket(-5));
+        assertEquals(0, SctpHistogram.bucket(0));
+        assertEquals(1, SctpHistogram.bucket(1));
+        assertEquals(2, SctpHistogram.bucket(2));
+        assertEquals(2, SctpHistogram.bucket(3));
+        assertEquals(11, SctpHistogram.bucket(1024));
+        assertEquals(
+                SctpHistogram.BUCKETS - 1,
+                SctpHistogram.bucket(Long.MAX_VALUE));
+
+        for (long v = 1; v < 1L << 20; v = v * 3 + 1)
+        {
+            assertTrue(v < SctpHistogram.upperBound(SctpHistogram.bucket(v)));
+        }
+    }
+
+    @Test
+    public void snapshotReportsPercentiles() {
+        SctpHistogram histogram = new SctpHistogram();
+        assertEquals(0, histogram.snapshot().getPercentile(99));
+
+        for (int i = 0; i < 99; i++)
+        {
+            histogram.record(100);
+        }
+        histogram.record(100_000);
+
+        SctpHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(99 * 100 + 100_000, snapshot.getSum());
+        assertEquals(128, snapshot.getPercentile(50));
+        assertEquals(128, snapshot.getPercentile(99));
+        assertEquals(131072, snapshot.getPercentile(100));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import org.junit.Test;
+
+import java.nio.*;
+
+import static org.junit.Assert.*;
+
+public class SctpNotificationViewTest {
+    private static ByteBuffer notification(int type, int length)
+    {
+        ByteBuffer buffer
+            = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        buffer.putShort(0, (short) type);
+        buffer.putInt(4, length);
+        return buffer;
+    }
+
+    @Test
+    public void decodesAssociationChange() {
+        ByteBuffer buffer
+            = notification(SctpNotification.SCTP_ASSOC_CHANGE, 20);
+        buffer.putShort(8, (short) SctpNotification.AssociationChange.SCTP_COMM_UP);
+        buffer.putShort(12, (short) 1024);
+        buffer.putShort(14, (short) 0xFFFF);
+        buffer.putInt(16, 7);
+
+        SctpNotificationView view = new SctpNotificationView();
+        view.wrap(buffer);
+        int[] calls = new int[1];
+        view.accept(new SctpNotificationListener()
+        {
+            @Override
+            public void onAssociationChange(SctpNotificationView notification)
+            {
+                calls[0]++;
+                assertEquals(
+                    SctpNotification.AssociationChange.SCTP_COMM_UP,
+                    notification.associationState());
+                assertEquals(1024, notification.outboundStreams());
+                assertEquals(0xFFFF, notification.inboundStreams());
+                assertEquals(7, notification.assocId());
+            }
+        });
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void decodesStreamReset() {
+        ByteBuffer buffer
+            = notification(SctpNotification.SCTP_STREAM_RESET_EVENT, 18);
+        buffer.putInt(8, 3);
+        buffer.putShort(12, (short) 1);
+        buffer.putShort(14, (short) 5);
+        buffer.putShort(16, (short) 9);
+
+        SctpNotificationView view = new SctpNotificationView();
+        view.wrap(buffer);
+        assertEquals(3, view.assocId());
+        assertEquals(3, view.resetStreamCount());
+        assertEquals(1, view.resetStream(0));
+        assertEquals(9, view.resetStream(2));
+    }
+
+    @Test
+    public void decodesSendFailed() {
+        ByteBuffer buffer
+            = notification(SctpNotification.SCTP_SEND_FAILED_EVENT, 36);
+        buffer.putInt(8, 11);
+        buffer.putShort(12, (short) 2);
+        // The PPID is in network byte order.
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(16, 51)
+            .order(ByteOrder.nativeOrder());
+        buffer.putInt(28, 4);
+
+        SctpNotificationView view = new SctpNotificationView();
+        view.wrap(buffer);
+        assertEquals(11, view.sendFailedError());
+        assertEquals(2, view.sendFailedStreamId());
+        assertEquals(51, view.sendFailedPpid());
+        assertEquals(4, view.assocId());
+        assertEquals(32, view.sendFailedDataOffset());
+        assertEquals(4, view.sendFailedDataLength());
+    }
+}
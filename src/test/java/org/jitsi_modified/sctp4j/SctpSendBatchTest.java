@@ -0,0 +1,88 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import org.jitsi.utils.logging2.*;
+import org.junit.Test;
+
+import java.nio.*;
+
+import static org.junit.Assert.*;
+
+public class SctpSendBatchTest {
+    @Test
+    public void growsAndKeepsParams() {
+        SctpSendBatch batch = new SctpSendBatch(1);
+
+        for (int i = 0; i < 10; i++)
+        {
+            batch.add(
+                    ByteBuffer.allocate(64),
+                    i,
+                    50 + i,
+                    SendOptions.UNORDERED.maxRetransmits(i));
+        }
+
+        assertEquals(10, batch.size());
+        for (int i = 0; i < 10; i++)
+        {
+            int row = i * SctpSendBatch.PARAMS_STRIDE;
+
+            assertEquals(
+                    SendOptions.SCTP_UNORDERED,
+                    batch.params[row + SctpSendBatch.FLAGS]);
+            assertEquals(i, batch.params[row + SctpSendBatch.SID]);
+            assertEquals(50 + i, batch.params[row + SctpSendBatch.PPID]);
+            assertEquals(
+                    SendOptions.SCTP_PR_SCTP_RTX,
+                    batch.params[row + SctpSendBatch.PR_POLICY]);
+            assertEquals(i, batch.params[row + SctpSendBatch.PR_VALUE]);
+        }
+    }
+
+    @Test
+    public void clearReleasesBuffers() {
+        SctpSendBatch batch = new SctpSendBatch(4);
+
+        batch.add(ByteBuffer.allocate(64), true, 1, 51);
+        batch.fail(SctpSendResult.WOULD_BLOCK);
+        assertEquals(SctpSendResult.WOULD_BLOCK, batch.result(0));
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertNull(batch.buffers[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReadOnlyHeapBuffers() {
+        new SctpSendBatch(1)
+            .add(ByteBuffer.allocate(64).asReadOnlyBuffer(), true, 1, 51);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sendRejectsReadOnlyHeapBuffers() {
+        SctpSocket socket
+            = new SctpClientSocket(
+                    1, 1, new LoggerImpl(SctpSendBatchTest.class.getName()));
+
+        socket.send(
+                ByteBuffer.allocate(64).asReadOnlyBuffer(),
+                1,
+                51,
+                SendOptions.RELIABLE);
+    }
+}
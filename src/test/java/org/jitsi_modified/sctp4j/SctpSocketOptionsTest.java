@@ -0,0 +1,79 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SctpSocketOptionsTest {
+    @Test
+    public void leavesUnsetOptionsAtDefaults() {
+        SctpSocketOptions options
+            = SctpSocketOptions.builder().sendBufferSize(65536).build();
+
+        assertEquals(65536, options.values[SctpSocketOptions.SNDBUF]);
+        for (int i = 0; i < SctpSocketOptions.COUNT; i++)
+        {
+            if (i != SctpSocketOptions.SNDBUF)
+            {
+                assertEquals(SctpSocketOptions.UNSET, options.values[i]);
+            }
+        }
+    }
+
+    @Test
+    public void builderDoesNotAffectBuiltOptions() {
+        SctpSocketOptions.Builder builder
+            = SctpSocketOptions.builder().maxBurst(4);
+        SctpSocketOptions options = builder.build();
+
+        builder.maxBurst(8);
+        assertEquals(4, options.values[SctpSocketOptions.MAXBURST]);
+        assertEquals(options, options.toBuilder().build());
+    }
+
+    @Test
+    public void interleavingDefaultsToRoundRobin() {
+        SctpSocketOptions options
+            = SctpSocketOptions.builder().interleaving(true).build();
+
+        assertEquals(1, options.values[SctpSocketOptions.INTERLEAVING]);
+        assertEquals(
+                SctpStreamScheduler.ROUND_ROBIN.value,
+                options.values[SctpSocketOptions.STREAM_SCHEDULER]);
+
+        options
+            = SctpSocketOptions.builder()
+                .streamScheduler(SctpStreamScheduler.FAIR_BANDWIDTH)
+                .interleaving(true)
+                .build();
+        assertEquals(
+                SctpStreamScheduler.FAIR_BANDWIDTH.value,
+                options.values[SctpSocketOptions.STREAM_SCHEDULER]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInconsistentRto() {
+        SctpSocketOptions.builder().rto(100, 200, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyStreams() {
+        SctpSocketOptions.builder().streams(65536, 1);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi_modified.sctp4j;
+
+import org.jitsi.utils.logging2.*;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SctpSocketRegistryTest {
+    private final Logger logger
+        = new LoggerImpl(SctpSocketRegistryTest.class.getName());
+
+    private SctpSocket register(SctpSocketRegistry registry)
+    {
+        SctpSocket socket
+            = new SctpClientSocket(1, registry.reserve(), logger);
+        registry.publish(socket);
+        return socket;
+    }
+
+    @Test
+    public void resolvesPublishedSockets() {
+        SctpSocketRegistry registry = new SctpSocketRegistry();
+        List<SctpSocket> sockets = new ArrayList<>();
+
+        // More than the initial capacity, so the registry has to grow.
+        for (int i = 0; i < 200; i++)
+        {
+            sockets.add(register(registry));
+        }
+        for (SctpSocket socket : sockets)
+        {
+            assertNotEquals(0, socket.id);
+            assertSame(socket, registry.get(socket.id));
+        }
+    }
+
+    @Test
+    public void rejectsStaleIds() {
+        SctpSocketRegistry registry = new SctpSocketRegistry();
+        SctpSocket closed = register(registry);
+
+        registry.release(closed.id);
+        assertNull(registry.get(closed.id));
+
+        // The slot is reused with a new generation.
+        SctpSocket reused = register(registry);
+        assertEquals((int) closed.id, (int) reused.id);
+        assertNotEquals(closed.id, reused.id);
+        assertNull(registry.get(closed.id));
+        assertSame(reused, registry.get(reused.id));
+
+        // Releasing the stale id again does not affect the new socket.
+        registry.release(closed.id);
+        assertSame(reused, registry.get(reused.id));
+    }
+
+    @Test
+    public void rejectsUnknownIds() {
+        SctpSocketRegistry registry = new SctpSocketRegistry();
+        long reserved = registry.reserve();
+
+        assertNull(registry.get(0));
+        assertNull(registry.get(-1));
+        assertNull(registry.get(Long.MAX_VALUE));
+        assertNull(registry.get(reserved));
+    }
+
+    @Test
+    public void snapshotsPublishedSockets() {
+        SctpSocketRegistry registry = new SctpSocketRegistry();
+        SctpSocket first = register(registry);
+        SctpSocket released = register(registry);
+        SctpSocket last = register(registry);
+
+        registry.reserve();
+        registry.release(released.id);
+
+        SctpSocket[] snapshot = new SctpSocket[4];
+        assertEquals(2, registry.snapshot(snapshot));
+        assertSame(first, snapshot[0]);
+        assertSame(last, snapshot[1]);
+
+        // A smaller array gets as many sockets as fit.
+        assertEquals(1, registry.snapshot(new SctpSocket[1]));
+    }
+}